@@ -0,0 +1,7 @@
+#!/bin/bash
+
+inline_targets=$1
+out_file=$2
+
+root=`dirname $0`/..
+java -cp $root/build/inliner.jar InlinerTool.PlanMain $inline_targets $out_file
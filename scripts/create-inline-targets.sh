@@ -1,10 +1,8 @@
 #!/bin/bash
 
-project=$1
-input_xml=$2
-out_file=$3
+input_xml=$1
+out_file=$2
+branch_file=$3
 
-cd `dirname $0`/../src/python
-source venv/bin/activate
-python3 manage.py importlogcompilation $project $input_xml $input_xml
-python3 manage.py exportlogcompilation $project $out_file
+root=`dirname $0`/..
+java -cp $root/build/inliner.jar InlinerTool.LogCompilationMain $input_xml $out_file $branch_file
@@ -0,0 +1,66 @@
+#!/bin/bash
+
+# usage: generate-large-caller.sh <steps> <out_file>
+# Writes InlinerWorkloads.LargeCaller, whose run method makes <steps>
+# unrolled bimorphic calls per element, about 24 bytes of bytecode each.
+# The default of 320 steps puts it just under HotSpot's HugeMethodLimit.
+steps=${1:-320}
+out_file=$2
+
+{
+cat <<'HEADER'
+package InlinerWorkloads;
+
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+// Generated by scripts/generate-large-caller.sh. A caller close to
+// HotSpot's HugeMethodLimit, where the inline budget has to keep inlining
+// from pushing it past the limit the JIT compiles.
+public class LargeCaller implements LongSupplier {
+
+	public interface Op {
+		long apply(long value);
+	}
+
+	public static final class Mix implements Op {
+		private final long factor;
+		Mix(long factor) { this.factor = factor; }
+		public long apply(long value) { return value * factor + 1; }
+	}
+
+	public static final class Shift implements Op {
+		private final int bits;
+		Shift(int bits) { this.bits = bits; }
+		public long apply(long value) { return value ^ (value >>> bits); }
+	}
+
+	private Op[] ops = new Op[Driver.SIZE];
+
+	public LargeCaller() {
+		Random random = new Random(42);
+		for (int i = 0; i < Driver.SIZE; ++i) {
+			if (random.nextBoolean()) {
+				ops[i] = new Mix(random.nextInt(100));
+			} else {
+				ops[i] = new Shift(1 + random.nextInt(31));
+			}
+		}
+	}
+
+	@Override
+	public long getAsLong() {
+		Op[] ops = this.ops;
+		long total = 0;
+		for (int i = 0; i < Driver.SIZE; ++i) {
+HEADER
+for ((step = 0; step < steps; ++step)); do
+	echo "			total = total * 31 + ops[(i + $step) & (Driver.SIZE - 1)].apply(total);"
+done
+cat <<'FOOTER'
+		}
+		return total;
+	}
+}
+FOOTER
+} > $out_file
@@ -0,0 +1,6 @@
+#!/bin/bash
+
+# usage: merge-inline-targets.sh [-min-fraction <f>] [-threads <n>]
+#            <out_file> <input>[=<weight>]...
+root=`dirname $0`/..
+java -cp $root/build/inliner.jar InlinerTool.MergeMain "$@"
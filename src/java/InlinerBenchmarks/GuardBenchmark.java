@@ -0,0 +1,111 @@
+package InlinerBenchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Compares a bimorphic invokevirtual with the two guard shapes
+// InlinerTransformer.handleDoubleInline has emitted in front of the inlined
+// bodies: a Class.forName lookup per execution, and a getClass() compare
+// against class constants.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class GuardBenchmark {
+
+	public static abstract class Shape {
+		public abstract int area();
+	}
+
+	public static final class Square extends Shape {
+		int side;
+		Square(int side) { this.side = side; }
+		public int area() { return side * side; }
+	}
+
+	public static final class Rectangle extends Shape {
+		int width;
+		int height;
+		Rectangle(int width, int height) { this.width = width; this.height = height; }
+		public int area() { return width * height; }
+	}
+
+	private static final String SQUARE_NAME = Square.class.getName();
+	private static final String RECTANGLE_NAME = Rectangle.class.getName();
+
+	private Shape[] shapes;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		shapes = new Shape[1024];
+		for (int i = 0; i < shapes.length; ++i) {
+			if (random.nextBoolean()) {
+				shapes[i] = new Square(random.nextInt(100));
+			} else {
+				shapes[i] = new Rectangle(random.nextInt(100),
+				                          random.nextInt(100));
+			}
+		}
+	}
+
+	@Benchmark
+	public int invokeVirtual() {
+		int total = 0;
+		for (Shape shape : shapes) {
+			total += shape.area();
+		}
+		return total;
+	}
+
+	@Benchmark
+	public int forNameGuard() throws ClassNotFoundException {
+		int total = 0;
+		for (Shape shape : shapes) {
+			Class<?> type = shape.getClass();
+			Class<?> typeA = Class.forName(SQUARE_NAME);
+			Class<?> typeB = Class.forName(RECTANGLE_NAME);
+			if (type == typeA) {
+				Square square = (Square) shape;
+				total += square.side * square.side;
+			} else if (type == typeB) {
+				Rectangle rectangle = (Rectangle) shape;
+				total += rectangle.width * rectangle.height;
+			} else {
+				total += shape.area();
+			}
+		}
+		return total;
+	}
+
+	@Benchmark
+	public int classConstantGuard() {
+		int total = 0;
+		for (Shape shape : shapes) {
+			Class<?> type = shape.getClass();
+			if (type == Square.class) {
+				Square square = (Square) shape;
+				total += square.side * square.side;
+			} else if (type == Rectangle.class) {
+				Rectangle rectangle = (Rectangle) shape;
+				total += rectangle.width * rectangle.height;
+			} else {
+				total += shape.area();
+			}
+		}
+		return total;
+	}
+}
@@ -0,0 +1,62 @@
+package InlinerBenchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+// Runs each workload in src/java/InlinerWorkloads on the classes javac wrote
+// and on the same classes after InlinerTool inlined them, see make
+// bench-workloads. The workloads are not in the benchmarks jar: each fork
+// loads one set of classes from build/workloads or build/workloads-inlined
+// (under -Dworkloads.dir, default build), so the call into the workload is
+// monomorphic in every fork.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class WorkloadBenchmark {
+
+	@Param({"Monomorphic", "Bimorphic", "Megamorphic", "DeepChain", "LargeCaller"})
+	public String workload;
+
+	@Param({"original", "inlined"})
+	public String classes;
+
+	private LongSupplier supplier;
+
+	@Setup
+	public void setup() throws Exception {
+		File directory = new File(System.getProperty("workloads.dir", "build"),
+			classes.equals("inlined") ? "workloads-inlined" : "workloads");
+		if (!directory.isDirectory()) {
+			throw new IllegalStateException(directory
+				+ " does not exist, run make bench-workloads");
+		}
+		URLClassLoader loader =
+			new URLClassLoader(new URL[] {directory.toURI().toURL()});
+		supplier = (LongSupplier)
+			loader.loadClass("InlinerWorkloads." + workload)
+				.getDeclaredConstructor().newInstance();
+	}
+
+	@Benchmark
+	public long run() {
+		return supplier.getAsLong();
+	}
+}
@@ -0,0 +1,150 @@
+package InlinerRuntime;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counts how often each branch of the guards InlinerTool inserted with
+// -inliner-instrument is taken, and writes the counts as an inline targets
+// file that MergeMain can merge into the next profile. Put this class on the
+// class path of the instrumented program and run it with:
+//   -Dinliner.guards=<guard sites file>
+//   -Dinliner.guards.output=<file> (default <guard sites file>.targets)
+//   -Dinliner.guards.interval=<seconds> (default 60, 0 only writes on exit)
+// Without inliner.guards nothing is counted.
+public final class GuardCounters {
+
+	// One per line of the guard sites file, indexed by slot
+	private static final LongAdder[] COUNTERS;
+	// Keyed by call site, caller@bci with the path down to a nested one
+	private static final LinkedHashMap<String, Site> SITES = new LinkedHashMap<>();
+
+	private static class Site {
+		List<String> callees = new ArrayList<>();
+		List<String> receiverClassNames = new ArrayList<>();
+		List<Integer> slots = new ArrayList<>();
+		// Receivers no guard matched
+		int fallbackSlot = -1;
+	}
+
+	static {
+		String sitesPath = System.getProperty("inliner.guards");
+		LongAdder[] counters = new LongAdder[0];
+		if (sitesPath != null) {
+			try {
+				counters = readSites(sitesPath);
+				start(System.getProperty("inliner.guards.output",
+				                         sitesPath + ".targets"),
+				      Long.getLong("inliner.guards.interval", 60));
+			} catch (IOException | RuntimeException e) {
+				System.err.println("GuardCounters: " + sitesPath + ": " + e);
+				counters = new LongAdder[0];
+			}
+		}
+		COUNTERS = counters;
+	}
+
+	private GuardCounters() {
+	}
+
+	public static void hit(int slot) {
+		if (slot < COUNTERS.length) {
+			COUNTERS[slot].increment();
+		}
+	}
+
+	// Each line is "slot caller@bci callee receiver-class" for a guard, or
+	// "slot caller@bci" for the fallback of the call site
+	private static LongAdder[] readSites(String sitesPath) throws IOException {
+		List<LongAdder> counters = new ArrayList<>();
+		try (BufferedReader bufferedReader =
+		     new BufferedReader(new FileReader(sitesPath))) {
+			String line = null;
+			while ((line = bufferedReader.readLine()) != null) {
+				String[] lineSplit = line.trim().split(" ");
+				if (lineSplit.length != 2 && lineSplit.length != 4) {
+					continue;
+				}
+				int slot = Integer.parseInt(lineSplit[0]);
+				while (counters.size() <= slot) {
+					counters.add(new LongAdder());
+				}
+				Site site = SITES.get(lineSplit[1]);
+				if (site == null) {
+					site = new Site();
+					SITES.put(lineSplit[1], site);
+				}
+				if (lineSplit.length == 2) {
+					site.fallbackSlot = slot;
+				} else {
+					site.callees.add(lineSplit[2]);
+					site.receiverClassNames.add(lineSplit[3]);
+					site.slots.add(slot);
+				}
+			}
+		}
+		return counters.toArray(new LongAdder[0]);
+	}
+
+	private static void start(String outputPath, long interval) {
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> dump(outputPath)));
+		if (interval <= 0) {
+			return;
+		}
+		Thread dumper = new Thread(() -> {
+			try {
+				while (true) {
+					Thread.sleep(interval * 1000);
+					dump(outputPath);
+				}
+			} catch (InterruptedException e) {
+				// Stop dumping
+			}
+		}, "GuardCounters");
+		dumper.setDaemon(true);
+		dumper.start();
+	}
+
+	// Writes to a temporary file first, so a reader never sees half a dump.
+	// A call site's count includes the calls that took the fallback.
+	private static synchronized void dump(String outputPath) {
+		File outputFile = new File(outputPath);
+		File tmpFile = new File(outputPath + ".tmp");
+		try (BufferedWriter bufferedWriter =
+		     new BufferedWriter(new FileWriter(tmpFile))) {
+			bufferedWriter.write("#inline-targets 3");
+			bufferedWriter.newLine();
+			for (Map.Entry<String, Site> entry : SITES.entrySet()) {
+				Site site = entry.getValue();
+				long[] counts = new long[site.slots.size()];
+				long total = site.fallbackSlot < 0
+					? 0 : COUNTERS[site.fallbackSlot].sum();
+				for (int i = 0; i < counts.length; ++i) {
+					counts[i] = COUNTERS[site.slots.get(i)].sum();
+					total += counts[i];
+				}
+				for (int i = 0; i < counts.length; ++i) {
+					bufferedWriter.write(entry.getKey() + " " + site.callees.get(i)
+						+ " " + total + " " + counts[i] + " "
+						+ site.receiverClassNames.get(i));
+					bufferedWriter.newLine();
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("GuardCounters: " + outputPath + ": " + e);
+			return;
+		}
+		if (!tmpFile.renameTo(outputFile)) {
+			outputFile.delete();
+			tmpFile.renameTo(outputFile);
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package InlinerTool;
+
+import soot.Body;
+import soot.FastHierarchy;
+import soot.Local;
+import soot.Modifier;
+import soot.PatchingChain;
+import soot.RefType;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootFieldRef;
+import soot.SootMethod;
+import soot.SootMethodRef;
+import soot.Type;
+import soot.Unit;
+import soot.Value;
+import soot.VoidType;
+import soot.jimple.AssignStmt;
+import soot.jimple.FieldRef;
+import soot.jimple.InstanceFieldRef;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.InvokeExpr;
+import soot.jimple.Jimple;
+import soot.jimple.JimpleBody;
+import soot.jimple.SpecialInvokeExpr;
+import soot.jimple.Stmt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+// Lets a callee that uses protected members be inlined into a caller in
+// another package. Each protected member the callee uses gets a public static
+// accessor in the callee's class, which may use it, and the callee's body
+// goes through the accessors instead. Calls to super methods and protected
+// constructors are invokespecial, which cannot be moved out of the callee's
+// own methods, so callees with those are left alone.
+public class AccessorGenerator {
+
+	public static final String PREFIX = "inline$access$";
+
+	// Keyed by host class, receiver type and the member reached
+	private HashMap<String, SootMethod> accessors = new HashMap<>();
+
+	// Returns false if the body of method cannot be rewritten
+	public boolean rewrite(SootMethod method) {
+		SootClass host = method.getDeclaringClass();
+		if (!host.isApplicationClass() || !method.isConcrete()) {
+			return false;
+		}
+
+		Body body = method.retrieveActiveBody();
+		for (Unit unit : body.getUnits()) {
+			Stmt stmt = (Stmt) unit;
+			if (stmt.containsInvokeExpr()
+			    && stmt.getInvokeExpr() instanceof SpecialInvokeExpr
+			    && stmt.getInvokeExpr().getMethod().isProtected()) {
+				return false;
+			}
+		}
+
+		PatchingChain<Unit> units = body.getUnits();
+		Iterator<Unit> unitsIter = units.snapshotIterator();
+		while (unitsIter.hasNext()) {
+			Stmt stmt = (Stmt) unitsIter.next();
+			if (stmt.containsInvokeExpr()) {
+				InvokeExpr invokeExpr = stmt.getInvokeExpr();
+				if (invokeExpr.getMethod().isProtected()) {
+					stmt.getInvokeExprBox().setValue(accessMethod(host, invokeExpr));
+				}
+				continue;
+			}
+			if (!stmt.containsFieldRef()
+			    || !stmt.getFieldRef().getField().isProtected()) {
+				continue;
+			}
+
+			AssignStmt assignStmt = (AssignStmt) stmt;
+			if (assignStmt.getRightOp() instanceof FieldRef) {
+				assignStmt.setRightOp(
+					accessField(host, (FieldRef) assignStmt.getRightOp(), null));
+			} else {
+				Stmt putStmt = Jimple.v().newInvokeStmt(accessField(
+					host, (FieldRef) assignStmt.getLeftOp(), assignStmt.getRightOp()));
+				putStmt.addAllTagsOf(stmt);
+				units.swapWith(stmt, putStmt);
+			}
+		}
+		return true;
+	}
+
+	public int getAccessorCount() {
+		return accessors.size();
+	}
+
+	private InvokeExpr accessMethod(SootClass host, InvokeExpr invokeExpr) {
+		SootMethodRef methodRef = invokeExpr.getMethodRef();
+		List<Value> arguments = new ArrayList<>();
+		List<Type> parameterTypes = new ArrayList<>();
+		if (invokeExpr instanceof InstanceInvokeExpr) {
+			Value base = ((InstanceInvokeExpr) invokeExpr).getBase();
+			arguments.add(base);
+			parameterTypes.add(getReceiverType(host, base));
+		}
+		arguments.addAll(invokeExpr.getArgs());
+		parameterTypes.addAll(methodRef.getParameterTypes());
+
+		String key = host.getName() + " " + parameterTypes + " "
+			+ methodRef.getSignature();
+		SootMethod accessor = accessors.get(key);
+		if (accessor == null) {
+			List<Local> parameters = new ArrayList<>();
+			accessor = newAccessor(host, parameterTypes,
+			                       methodRef.getReturnType(), parameters);
+			InvokeExpr accessExpr;
+			if (invokeExpr instanceof InstanceInvokeExpr) {
+				accessExpr = Jimple.v().newVirtualInvokeExpr(
+					parameters.get(0), methodRef,
+					parameters.subList(1, parameters.size()));
+			} else {
+				accessExpr = Jimple.v().newStaticInvokeExpr(methodRef, parameters);
+			}
+			addReturn(accessor.getActiveBody(), accessExpr,
+			          methodRef.getReturnType());
+			accessors.put(key, accessor);
+		}
+		return Jimple.v().newStaticInvokeExpr(accessor.makeRef(), arguments);
+	}
+
+	// A get when value is null, otherwise a put of value
+	private InvokeExpr accessField(SootClass host, FieldRef fieldRef, Value value) {
+		SootFieldRef sootFieldRef = fieldRef.getFieldRef();
+		List<Value> arguments = new ArrayList<>();
+		List<Type> parameterTypes = new ArrayList<>();
+		if (fieldRef instanceof InstanceFieldRef) {
+			Value base = ((InstanceFieldRef) fieldRef).getBase();
+			arguments.add(base);
+			parameterTypes.add(getReceiverType(host, base));
+		}
+		if (value != null) {
+			arguments.add(value);
+			parameterTypes.add(sootFieldRef.type());
+		}
+
+		String key = host.getName() + " " + parameterTypes + " "
+			+ (value == null ? "get " : "put ") + sootFieldRef.getSignature();
+		SootMethod accessor = accessors.get(key);
+		if (accessor == null) {
+			List<Local> parameters = new ArrayList<>();
+			Type returnType = value == null ? sootFieldRef.type() : VoidType.v();
+			accessor = newAccessor(host, parameterTypes, returnType, parameters);
+			FieldRef accessRef = fieldRef instanceof InstanceFieldRef
+				? Jimple.v().newInstanceFieldRef(parameters.get(0), sootFieldRef)
+				: Jimple.v().newStaticFieldRef(sootFieldRef);
+			Body body = accessor.getActiveBody();
+			if (value == null) {
+				addReturn(body, accessRef, returnType);
+			} else {
+				body.getUnits().add(Jimple.v().newAssignStmt(
+					accessRef, parameters.get(parameters.size() - 1)));
+				body.getUnits().add(Jimple.v().newReturnVoidStmt());
+			}
+			accessors.put(key, accessor);
+		}
+		return Jimple.v().newStaticInvokeExpr(accessor.makeRef(), arguments);
+	}
+
+	// Outside the member's package, a protected member may only be used
+	// through a reference to the class using it, so the accessor takes the
+	// host's type when the callee's reference allows it
+	private Type getReceiverType(SootClass host, Value base) {
+		FastHierarchy hierarchy = Scene.v().getOrMakeFastHierarchy();
+		if (base.getType() instanceof RefType
+		    && hierarchy.canStoreType(base.getType(), host.getType())) {
+			return host.getType();
+		}
+		return base.getType();
+	}
+
+	// Adds a public static method to host that starts by assigning its
+	// parameters to the locals added to parameters
+	private SootMethod newAccessor(SootClass host,
+	                               List<Type> parameterTypes,
+	                               Type returnType,
+	                               List<Local> parameters) {
+		// Numbered within the host, so adding accessors to one class does
+		// not rename those of another
+		int id = 0;
+		while (host.declaresMethodByName(PREFIX + id)) {
+			++id;
+		}
+		String name = PREFIX + id;
+		SootMethod accessor = new SootMethod(
+			name, parameterTypes, returnType,
+			Modifier.PUBLIC | Modifier.STATIC | Modifier.SYNTHETIC);
+		host.addMethod(accessor);
+
+		JimpleBody body = Jimple.v().newBody(accessor);
+		accessor.setActiveBody(body);
+		for (int i = 0; i < parameterTypes.size(); ++i) {
+			Local parameter = Jimple.v().newLocal("p" + i, parameterTypes.get(i));
+			body.getLocals().add(parameter);
+			body.getUnits().add(Jimple.v().newIdentityStmt(
+				parameter,
+				Jimple.v().newParameterRef(parameterTypes.get(i), i)));
+			parameters.add(parameter);
+		}
+		return accessor;
+	}
+
+	private void addReturn(Body body, Value value, Type returnType) {
+		if (returnType instanceof VoidType) {
+			body.getUnits().add(Jimple.v().newInvokeStmt(value));
+			body.getUnits().add(Jimple.v().newReturnVoidStmt());
+			return;
+		}
+		Local result = Jimple.v().newLocal("result", returnType);
+		body.getLocals().add(result);
+		body.getUnits().add(Jimple.v().newAssignStmt(result, value));
+		body.getUnits().add(Jimple.v().newReturnStmt(result));
+	}
+}
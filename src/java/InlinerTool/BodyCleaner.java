@@ -0,0 +1,86 @@
+package InlinerTool;
+
+import soot.Body;
+import soot.BodyTransformer;
+import soot.FastHierarchy;
+import soot.Local;
+import soot.RefLikeType;
+import soot.Scene;
+import soot.Unit;
+import soot.Value;
+import soot.baf.Baf;
+import soot.jimple.AssignStmt;
+import soot.jimple.CastExpr;
+import soot.jimple.JimpleBody;
+import soot.jimple.toolkits.annotation.nullcheck.NullCheckEliminator;
+import soot.jimple.toolkits.scalar.ConditionalBranchFolder;
+import soot.jimple.toolkits.scalar.ConstantPropagatorAndFolder;
+import soot.jimple.toolkits.scalar.CopyPropagator;
+import soot.jimple.toolkits.scalar.DeadAssignmentEliminator;
+import soot.jimple.toolkits.scalar.NopEliminator;
+import soot.jimple.toolkits.scalar.UnconditionalBranchFolder;
+import soot.jimple.toolkits.scalar.UnreachableCodeEliminator;
+import soot.toolkits.scalar.UnusedLocalEliminator;
+
+// Cleans up a body after inlining: SiteInliner leaves a copy for every
+// argument and for the receiver, the guards leave casts and nops, and the
+// fallback of a guard may no longer be reachable. These are the jop passes
+// Soot runs with -O, in the same order, on the inlined bodies only.
+public class BodyCleaner {
+
+	private static final BodyTransformer[] PASSES = new BodyTransformer[] {
+		CopyPropagator.v(),
+		ConstantPropagatorAndFolder.v(),
+		ConditionalBranchFolder.v(),
+		DeadAssignmentEliminator.v(),
+		new NullCheckEliminator(),
+		UnreachableCodeEliminator.v(),
+		UnconditionalBranchFolder.v(),
+		UnreachableCodeEliminator.v(),
+		UnconditionalBranchFolder.v(),
+		NopEliminator.v(),
+		UnusedLocalEliminator.v()
+	};
+
+	// Returns the number of bytecode instructions removed
+	public int clean(Body body) {
+		int before = countInstructions(body);
+		removeRedundantCasts(body);
+		for (BodyTransformer pass : PASSES) {
+			pass.transform(body);
+		}
+		return before - countInstructions(body);
+	}
+
+	// A cast to a type the local already has, such as the receiver cast of
+	// a guard whose base was narrowed by an outer guard, becomes a copy that
+	// copy propagation then removes
+	private void removeRedundantCasts(Body body) {
+		FastHierarchy hierarchy = Scene.v().getOrMakeFastHierarchy();
+		for (Unit unit : body.getUnits()) {
+			if (!(unit instanceof AssignStmt)) {
+				continue;
+			}
+			AssignStmt assignStmt = (AssignStmt) unit;
+			Value rightOp = assignStmt.getRightOp();
+			if (!(rightOp instanceof CastExpr)) {
+				continue;
+			}
+			CastExpr castExpr = (CastExpr) rightOp;
+			if (!(castExpr.getOp() instanceof Local)) {
+				continue;
+			}
+			Local local = (Local) castExpr.getOp();
+			if (local.getType() instanceof RefLikeType
+			    && hierarchy.canStoreType(local.getType(), castExpr.getCastType())) {
+				assignStmt.setRightOp(local);
+			}
+		}
+	}
+
+	// The body is translated to Baf, which has one instruction per bytecode
+	// instruction, before the load and store optimizations Soot runs on it
+	public static int countInstructions(Body body) {
+		return Baf.v().newBody((JimpleBody) body).getUnits().size();
+	}
+}
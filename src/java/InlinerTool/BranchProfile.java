@@ -0,0 +1,159 @@
+package InlinerTool;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+// The branch counts C2 logged for each conditional branch it parsed, and the
+// uncommon traps compiled code hit at run time, by method and bytecode
+// offset. The branch profile file starts with a "#branch-profile 1" header,
+// followed by one line per branch:
+//
+//   method@bci taken not-taken traps
+//
+// taken counts the jumps to the branch target and not-taken the fall
+// throughs. traps counts the uncommon traps hit at the branch, after which
+// HotSpot ran the side it had compiled away.
+public class BranchProfile {
+
+	public static final String HEADER = "#branch-profile";
+	public static final int VERSION = 1;
+
+	public static class Branch {
+		private long taken = 0;
+		private long notTaken = 0;
+		private long traps = 0;
+
+		public long getTaken() {
+			return taken;
+		}
+
+		public long getNotTaken() {
+			return notTaken;
+		}
+
+		public long getTraps() {
+			return traps;
+		}
+	}
+
+	// Keyed by HotSpot signature, then bytecode offset
+	private HashMap<String, HashMap<Integer, Branch>> methodBranches =
+		new HashMap<>();
+
+	public Branch getBranch(String methodSignature, int bytecodeOffset) {
+		HashMap<Integer, Branch> branches = methodBranches.get(methodSignature);
+		if (branches == null) {
+			branches = new HashMap<>();
+			methodBranches.put(methodSignature, branches);
+		}
+		Branch branch = branches.get(bytecodeOffset);
+		if (branch == null) {
+			branch = new Branch();
+			branches.put(bytecodeOffset, branch);
+		}
+		return branch;
+	}
+
+	// A method compiled more than once logs the profile each time, and the
+	// counts only grow, so the largest are kept
+	public void recordCounts(String methodSignature,
+	                         int bytecodeOffset,
+	                         long taken,
+	                         long notTaken) {
+		Branch branch = getBranch(methodSignature, bytecodeOffset);
+		branch.taken = Math.max(branch.taken, taken);
+		branch.notTaken = Math.max(branch.notTaken, notTaken);
+	}
+
+	public void recordTrap(String methodSignature, int bytecodeOffset) {
+		++getBranch(methodSignature, bytecodeOffset).traps;
+	}
+
+	// Returns true if the profile never saw the jump of the branch at
+	// bytecodeOffset taken, false if it never saw it fall through, and null
+	// if both sides ran, a trap was hit there or there is no profile
+	public Boolean isTakenCold(String methodSignature, int bytecodeOffset) {
+		HashMap<Integer, Branch> branches = methodBranches.get(methodSignature);
+		Branch branch = branches == null ? null : branches.get(bytecodeOffset);
+		if (branch == null || branch.traps > 0) {
+			return null;
+		}
+		if (branch.taken == 0 && branch.notTaken > 0) {
+			return true;
+		}
+		if (branch.notTaken == 0 && branch.taken > 0) {
+			return false;
+		}
+		return null;
+	}
+
+	public int size() {
+		int size = 0;
+		for (HashMap<Integer, Branch> branches : methodBranches.values()) {
+			size += branches.size();
+		}
+		return size;
+	}
+
+	public void write(String branchProfilePath) throws IOException {
+		try (BufferedWriter bufferedWriter =
+		     new BufferedWriter(new FileWriter(branchProfilePath))) {
+			bufferedWriter.write(HEADER + " " + VERSION);
+			bufferedWriter.newLine();
+			for (Map.Entry<String, HashMap<Integer, Branch>> entry
+			     : new TreeMap<>(methodBranches).entrySet()) {
+				for (Map.Entry<Integer, Branch> branchEntry
+				     : new TreeMap<>(entry.getValue()).entrySet()) {
+					Branch branch = branchEntry.getValue();
+					bufferedWriter.write(InlineProfile.getKey(entry.getKey(),
+					                                          branchEntry.getKey())
+						+ " " + branch.taken + " " + branch.notTaken
+						+ " " + branch.traps);
+					bufferedWriter.newLine();
+				}
+			}
+		}
+	}
+
+	public static BranchProfile read(String branchProfilePath) throws IOException {
+		BranchProfile profile = new BranchProfile();
+		int lineNumber = 0;
+		try (BufferedReader bufferedReader =
+		     new BufferedReader(new FileReader(branchProfilePath))) {
+			String line = null;
+			while ((line = bufferedReader.readLine()) != null) {
+				++lineNumber;
+				line = line.trim();
+				if (lineNumber == 1 && !line.equals(HEADER + " " + VERSION)) {
+					throw new IOException(branchProfilePath
+						+ ": not a branch profile '" + line + "'");
+				}
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+
+				try {
+					String[] lineSplit = line.split("\\s+");
+					int at = lineSplit[0].lastIndexOf('@');
+					String methodSignature = lineSplit[0].substring(0, at);
+					int bytecodeOffset =
+						Integer.parseInt(lineSplit[0].substring(at + 1));
+					Branch branch = profile.getBranch(methodSignature, bytecodeOffset);
+					branch.taken += Long.parseLong(lineSplit[1]);
+					branch.notTaken += Long.parseLong(lineSplit[2]);
+					branch.traps += Long.parseLong(lineSplit[3]);
+				} catch (RuntimeException e) {
+					throw new IOException(branchProfilePath + ":" + lineNumber
+						+ ": malformed branch '" + line + "'", e);
+				}
+			}
+		}
+		return profile;
+	}
+}
@@ -0,0 +1,145 @@
+package InlinerTool;
+
+import soot.Body;
+import soot.Local;
+import soot.SootClass;
+import soot.SootField;
+import soot.SootMethod;
+import soot.Unit;
+import soot.Value;
+import soot.jimple.AssignStmt;
+import soot.jimple.FieldRef;
+import soot.jimple.InvokeExpr;
+import soot.jimple.Stmt;
+import soot.jimple.ThrowStmt;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The safety checks InlinerTransformer runs on a callee only depend on the
+// callee's body, so they are computed in one pass the first time a callee is
+// seen and reused for every other call site. The inter-package checks also
+// depend on the caller's package, which is compared on each lookup.
+public class CalleeSafetyCache {
+
+	public static class Facts {
+		private boolean protectedAbstractInvoke = false;
+		private boolean abstractMethodError = false;
+		private boolean protectedInvoke = false;
+		private boolean protectedAccess = false;
+		private String packageName;
+
+		public boolean containsProtectedAbstractInvoke() {
+			return protectedAbstractInvoke;
+		}
+
+		public boolean containsAbstractMethodError() {
+			return abstractMethodError;
+		}
+
+		// will inlining this target invoke a protected method
+		// from another package?
+		public boolean containsInterPackageProtectedInvoke(SootClass callerClass) {
+			if (callerClass.getPackageName().equals(packageName)) {
+				return false;
+			}
+			return protectedInvoke;
+		}
+
+		public boolean containsInterPackageProtectedAccess(SootClass callerClass) {
+			if (callerClass.getPackageName().equals(packageName)) {
+				return false;
+			}
+			return protectedAccess;
+		}
+	}
+
+	private ConcurrentHashMap<SootMethod, Facts> factsMap = new ConcurrentHashMap<>();
+	private AtomicLong hits = new AtomicLong();
+	private AtomicLong misses = new AtomicLong();
+
+	public Facts get(SootMethod callee) {
+		Facts facts = factsMap.get(callee);
+		if (facts != null) {
+			hits.incrementAndGet();
+			return facts;
+		}
+
+		misses.incrementAndGet();
+		facts = computeFacts(callee);
+		factsMap.put(callee, facts);
+		return facts;
+	}
+
+	// Called when inlining changes the body of method
+	public void invalidate(SootMethod method) {
+		factsMap.remove(method);
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	private Facts computeFacts(SootMethod method) {
+		Facts facts = new Facts();
+		facts.packageName = method.getDeclaringClass().getPackageName();
+
+		for (SootClass e : method.getExceptions()) {
+			if (e.getName().equals("java.lang.AbstractMethodError")) {
+				facts.abstractMethodError = true;
+			}
+		}
+
+		Body body = method.retrieveActiveBody();
+		for (Unit unit : body.getUnits()) {
+			Stmt stmt = (Stmt) unit;
+
+			if (stmt.containsInvokeExpr()) {
+				InvokeExpr ie = stmt.getInvokeExpr();
+				SootMethod targetMethod = ie.getMethod();
+				if (targetMethod.isProtected()) {
+					facts.protectedInvoke = true;
+					if (targetMethod.isAbstract()) {
+						facts.protectedAbstractInvoke = true;
+					}
+				}
+			}
+
+			if (stmt instanceof ThrowStmt) {
+				ThrowStmt throwStmt = (ThrowStmt) stmt;
+				Value op = throwStmt.getOp();
+				if (op instanceof Local) {
+					String type = ((Local) op).getType().toString();
+					if (type.equals("java.lang.AbstractMethodError")) {
+						facts.abstractMethodError = true;
+					}
+				}
+			}
+
+			if (stmt instanceof AssignStmt) {
+				AssignStmt as = (AssignStmt) stmt;
+				Value left = as.getLeftOp();
+				Value right = as.getRightOp();
+
+				if (left instanceof FieldRef) {
+					SootField f = ((FieldRef) left).getField();
+					if (f.isProtected()) {
+						facts.protectedAccess = true;
+					}
+				}
+
+				if (right instanceof FieldRef) {
+					SootField f = ((FieldRef) right).getField();
+					if (f.isProtected()) {
+						facts.protectedAccess = true;
+					}
+				}
+			}
+		}
+		return facts;
+	}
+}
@@ -0,0 +1,152 @@
+package InlinerTool;
+
+import soot.FoundFile;
+import soot.SourceLocator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Keeps the classes written by earlier runs, each with the key of the inputs
+// it was written from. A class whose key is unchanged is copied from the
+// cache instead of being written again. The cache directory holds an index,
+// one "class key" line per class, and the class files under classes/.
+public class ClassCache {
+
+	private static final String INDEX = "index";
+
+	private File directory;
+	// Mixed into every key, so changing the command line starts over
+	private String configuration;
+	private HashMap<String, String> keys = new HashMap<>();
+	// Classes to store once Soot has written them, and their new keys
+	private TreeMap<String, String> written = new TreeMap<>();
+
+	public ClassCache(String directory, String configuration) throws IOException {
+		this.directory = new File(directory);
+		this.configuration = configuration;
+		File index = new File(this.directory, INDEX);
+		if (!index.exists()) {
+			return;
+		}
+		try (BufferedReader bufferedReader =
+		     new BufferedReader(new FileReader(index))) {
+			String line = null;
+			while ((line = bufferedReader.readLine()) != null) {
+				String[] lineSplit = line.split(" ");
+				if (lineSplit.length == 2) {
+					keys.put(lineSplit[0], lineSplit[1]);
+				}
+			}
+		}
+	}
+
+	public String getConfiguration() {
+		return configuration;
+	}
+
+	public boolean isCurrent(String className, String key) {
+		return key.equals(keys.get(className))
+			&& getCachedFile(className).exists();
+	}
+
+	// Stores className, with key, once Soot has written it
+	public void expect(String className, String key) {
+		written.put(className, key);
+	}
+
+	// Copies the classes Soot wrote into the cache and the cached ones into
+	// outputDir, then saves the index
+	public void update(String outputDir, Iterable<String> reused)
+		throws IOException {
+		for (Map.Entry<String, String> entry : written.entrySet()) {
+			File outputFile = getOutputFile(outputDir, entry.getKey());
+			if (!outputFile.exists()) {
+				keys.remove(entry.getKey());
+				continue;
+			}
+			File cachedFile = getCachedFile(entry.getKey());
+			cachedFile.getParentFile().mkdirs();
+			Files.copy(outputFile.toPath(), cachedFile.toPath(),
+			           StandardCopyOption.REPLACE_EXISTING);
+			keys.put(entry.getKey(), entry.getValue());
+		}
+		for (String className : reused) {
+			File outputFile = getOutputFile(outputDir, className);
+			outputFile.getParentFile().mkdirs();
+			Files.copy(getCachedFile(className).toPath(), outputFile.toPath(),
+			           StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		directory.mkdirs();
+		try (BufferedWriter bufferedWriter = new BufferedWriter(
+		     new FileWriter(new File(directory, INDEX)))) {
+			for (Map.Entry<String, String> entry : new TreeMap<>(keys).entrySet()) {
+				bufferedWriter.write(entry.getKey() + " " + entry.getValue());
+				bufferedWriter.newLine();
+			}
+		}
+	}
+
+	// Returns the hash of className's input class file, or null if it is not
+	// on Soot's class path
+	public static String hashClassFile(String className) throws IOException {
+		FoundFile foundFile = SourceLocator.v().lookupInClassPath(
+			className.replace('.', '/') + ".class");
+		if (foundFile == null) {
+			return null;
+		}
+		MessageDigest digest = newDigest();
+		try (InputStream inputStream = foundFile.inputStream()) {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = inputStream.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		} finally {
+			foundFile.close();
+		}
+		return toHex(digest.digest());
+	}
+
+	public static String hash(String text) {
+		return toHex(newDigest().digest(text.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private File getCachedFile(String className) {
+		return new File(directory,
+			"classes/" + className.replace('.', '/') + ".class");
+	}
+
+	private static File getOutputFile(String outputDir, String className) {
+		return new File(outputDir, className.replace('.', '/') + ".class");
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : bytes) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,349 @@
+package InlinerTool;
+
+import soot.Body;
+import soot.Local;
+import soot.Modifier;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.Trap;
+import soot.Type;
+import soot.Unit;
+import soot.UnitBox;
+import soot.Value;
+import soot.ValueBox;
+import soot.VoidType;
+import soot.jimple.IdentityStmt;
+import soot.jimple.IfStmt;
+import soot.jimple.InvokeExpr;
+import soot.jimple.Jimple;
+import soot.jimple.JimpleBody;
+import soot.jimple.MonitorStmt;
+import soot.jimple.SpecialInvokeExpr;
+import soot.jimple.Stmt;
+import soot.tagkit.BytecodeOffsetTag;
+import soot.tagkit.Tag;
+import soot.toolkits.graph.BriefUnitGraph;
+import soot.toolkits.graph.UnitGraph;
+import soot.toolkits.scalar.SimpleLiveLocals;
+import soot.toolkits.scalar.UnusedLocalEliminator;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+// Moves the cold regions of a body into private static methods of its
+// class, so inlined error handling does not count against the hot path. A
+// region starts at the side of a conditional branch the branch profile never
+// saw run, and holds everything reachable from there. It is only moved when
+// cold branches are its only way in and it only leaves the method, by
+// returning or throwing, so the call to the new method is followed by a
+// return of its result. Each branch is looked up under the method it came
+// from, the caller itself or a callee inlined into it.
+public class ColdPathOutliner {
+
+	// Marks a branch inlined from owner. The inliner copies it along with
+	// the other tags, so a branch keeps its owner when the body it was
+	// inlined into is inlined again.
+	public static class OwnerTag implements Tag {
+		public static final String NAME = "InlinerOwnerTag";
+
+		private SootMethod owner;
+
+		public OwnerTag(SootMethod owner) {
+			this.owner = owner;
+		}
+
+		public SootMethod getOwner() {
+			return owner;
+		}
+
+		@Override
+		public String getName() {
+			return NAME;
+		}
+
+		// Never written to a class file
+		@Override
+		public byte[] getValue() {
+			return new byte[0];
+		}
+	}
+
+	private BranchProfile branchProfile;
+	// Regions of fewer Jimple statements are left in place
+	private int minSize;
+	private int outlinedStatements = 0;
+	private HashMap<SootMethod, String> signatures = new HashMap<>();
+
+	public ColdPathOutliner(BranchProfile branchProfile, int minSize) {
+		this.branchProfile = branchProfile;
+		this.minSize = minSize;
+	}
+
+	public int getOutlinedStatements() {
+		return outlinedStatements;
+	}
+
+	// Tags the branches among the statements inlined from sootCallee that
+	// do not have an owner yet
+	public static void tagOwners(List<Unit> inlinedUnits, SootMethod sootCallee) {
+		for (Unit unit : inlinedUnits) {
+			if (unit instanceof IfStmt && !unit.hasTag(OwnerTag.NAME)) {
+				unit.addTag(new OwnerTag(sootCallee));
+			}
+		}
+	}
+
+	// Returns the number of regions moved
+	public int outline(SootMethod sootCaller) {
+		SootClass sootClass = sootCaller.getDeclaringClass();
+		// Private interface methods need Java 9, and constructors may
+		// assign final fields
+		if (sootClass.isInterface() || sootCaller.isConstructor()
+		    || sootCaller.isStaticInitializer()) {
+			return 0;
+		}
+		Body body = sootCaller.retrieveActiveBody();
+
+		// Found before any region moves, a region may hold other branches.
+		// Several cold branches can share an entry, as the two sides of an
+		// || do.
+		List<Unit> entries = new ArrayList<>();
+		HashMap<Unit, HashSet<Unit>> coldBranches = new HashMap<>();
+		for (Unit unit : body.getUnits()) {
+			if (!(unit instanceof IfStmt)) {
+				continue;
+			}
+			BytecodeOffsetTag bytecodeOffsetTag =
+				(BytecodeOffsetTag) unit.getTag("BytecodeOffsetTag");
+			if (bytecodeOffsetTag == null) {
+				continue;
+			}
+			OwnerTag ownerTag = (OwnerTag) unit.getTag(OwnerTag.NAME);
+			Boolean takenCold = branchProfile.isTakenCold(
+				getSignature(ownerTag == null ? sootCaller : ownerTag.getOwner()),
+				bytecodeOffsetTag.getBytecodeOffset());
+			if (takenCold == null) {
+				continue;
+			}
+			Unit entry = takenCold ? ((IfStmt) unit).getTarget()
+			                       : body.getUnits().getSuccOf(unit);
+			HashSet<Unit> branches = coldBranches.get(entry);
+			if (branches == null) {
+				branches = new HashSet<>();
+				coldBranches.put(entry, branches);
+				entries.add(entry);
+			}
+			branches.add(unit);
+		}
+
+		int outlined = 0;
+		for (Unit entry : entries) {
+			if (body.getUnits().contains(entry)
+			    && outlineRegion(sootCaller, body, coldBranches.get(entry), entry)) {
+				++outlined;
+			}
+		}
+		if (outlined > 0) {
+			UnusedLocalEliminator.v().transform(body);
+		}
+		return outlined;
+	}
+
+	private String getSignature(SootMethod sootMethod) {
+		String signature = signatures.get(sootMethod);
+		if (signature == null) {
+			signature = MethodIndex.getHotSpotSignature(sootMethod);
+			signatures.put(sootMethod, signature);
+		}
+		return signature;
+	}
+
+	private boolean outlineRegion(SootMethod sootCaller,
+	                              Body body,
+	                              HashSet<Unit> branches,
+	                              Unit entry) {
+		UnitGraph graph = new BriefUnitGraph(body);
+		HashSet<Unit> region = new HashSet<>();
+		ArrayDeque<Unit> worklist = new ArrayDeque<>();
+		region.add(entry);
+		worklist.add(entry);
+		while (!worklist.isEmpty()) {
+			for (Unit succ : graph.getSuccsOf(worklist.pop())) {
+				if (region.add(succ)) {
+					worklist.add(succ);
+				}
+			}
+		}
+		if (region.size() < minSize
+		    || !isMovable(body, graph, region, branches, entry)) {
+			return false;
+		}
+
+		// Live at the entry, in the order the body declares them. No region
+		// statement is covered by a trap, so the edges of the brief graph
+		// are all there are.
+		HashSet<Local> live =
+			new HashSet<>(new SimpleLiveLocals(graph).getLiveLocalsBefore(entry));
+		List<Local> parameters = new ArrayList<>();
+		for (Local local : body.getLocals()) {
+			if (live.contains(local)) {
+				parameters.add(local);
+			}
+		}
+		// An object is only passed on once its constructor ran
+		for (Unit unit : region) {
+			Stmt stmt = (Stmt) unit;
+			if (stmt.containsInvokeExpr()
+			    && stmt.getInvokeExpr() instanceof SpecialInvokeExpr
+			    && live.contains(((SpecialInvokeExpr) stmt.getInvokeExpr()).getBase())) {
+				return false;
+			}
+		}
+
+		SootClass sootClass = sootCaller.getDeclaringClass();
+		Type returnType = sootCaller.getReturnType();
+		List<Type> parameterTypes = new ArrayList<>();
+		for (Local parameter : parameters) {
+			parameterTypes.add(parameter.getType());
+		}
+		SootMethod coldMethod = new SootMethod(getColdName(sootClass, sootCaller),
+		                                       parameterTypes,
+		                                       returnType,
+		                                       Modifier.PRIVATE | Modifier.STATIC);
+		sootClass.addMethod(coldMethod);
+		JimpleBody coldBody = Jimple.v().newBody(coldMethod);
+		coldMethod.setActiveBody(coldBody);
+
+		HashMap<Local, Local> coldLocals = new HashMap<>();
+		for (int i = 0; i < parameters.size(); ++i) {
+			coldBody.getUnits().add(Jimple.v().newIdentityStmt(
+				getColdLocal(coldLocals, coldBody, parameters.get(i)),
+				Jimple.v().newParameterRef(parameterTypes.get(i), i)));
+		}
+
+		// The call takes the place of the entry for every jump from outside
+		// the region, and the statements keep their order, so each still
+		// falls through to the same one
+		InvokeExpr invokeExpr = Jimple.v().newStaticInvokeExpr(
+			coldMethod.makeRef(), new ArrayList<Value>(parameters));
+		List<Unit> callUnits = new ArrayList<>();
+		if (returnType instanceof VoidType) {
+			callUnits.add(Jimple.v().newInvokeStmt(invokeExpr));
+			callUnits.add(Jimple.v().newReturnVoidStmt());
+		} else {
+			Local result = Jimple.v().newLocal("$cold" + body.getLocalCount(),
+			                                   returnType);
+			body.getLocals().add(result);
+			callUnits.add(Jimple.v().newAssignStmt(result, invokeExpr));
+			callUnits.add(Jimple.v().newReturnStmt(result));
+		}
+		List<Unit> regionUnits = new ArrayList<>();
+		for (Unit unit : body.getUnits()) {
+			if (region.contains(unit)) {
+				regionUnits.add(unit);
+			}
+		}
+		body.getUnits().getNonPatchingChain().insertBefore(callUnits, entry);
+		for (Unit unit : body.getUnits()) {
+			if (!region.contains(unit)) {
+				redirect(unit.getUnitBoxes(), entry, callUnits.get(0));
+			}
+		}
+		for (Trap trap : body.getTraps()) {
+			redirect(trap.getUnitBoxes(), entry, callUnits.get(0));
+		}
+
+		if (regionUnits.get(0) != entry) {
+			coldBody.getUnits().add(Jimple.v().newGotoStmt(entry));
+		}
+		for (Unit unit : regionUnits) {
+			body.getUnits().getNonPatchingChain().remove(unit);
+			coldBody.getUnits().getNonPatchingChain().add(unit);
+			for (ValueBox valueBox : unit.getUseAndDefBoxes()) {
+				if (valueBox.getValue() instanceof Local) {
+					valueBox.setValue(getColdLocal(coldLocals, coldBody,
+					                               (Local) valueBox.getValue()));
+				}
+			}
+		}
+		outlinedStatements += regionUnits.size();
+		return true;
+	}
+
+	// The region must be entered only from cold branches, and must not be
+	// covered by a trap or hold identity or monitor statements or super
+	// calls, which only mean the same in the caller's own frame
+	private boolean isMovable(Body body,
+	                          UnitGraph graph,
+	                          HashSet<Unit> region,
+	                          HashSet<Unit> branches,
+	                          Unit entry) {
+		for (Unit pred : graph.getPredsOf(entry)) {
+			if (!region.contains(pred) && !branches.contains(pred)) {
+				return false;
+			}
+		}
+		for (Unit unit : region) {
+			if (unit != entry) {
+				for (Unit pred : graph.getPredsOf(unit)) {
+					if (!region.contains(pred)) {
+						return false;
+					}
+				}
+			}
+			if (unit instanceof IdentityStmt || unit instanceof MonitorStmt) {
+				return false;
+			}
+			Stmt stmt = (Stmt) unit;
+			if (stmt.containsInvokeExpr()
+			    && stmt.getInvokeExpr() instanceof SpecialInvokeExpr
+			    && !stmt.getInvokeExpr().getMethodRef().getName().equals("<init>")) {
+				return false;
+			}
+		}
+		for (Trap trap : body.getTraps()) {
+			if (region.contains(trap.getHandlerUnit())) {
+				return false;
+			}
+			for (Unit unit = trap.getBeginUnit(); unit != trap.getEndUnit();
+			     unit = body.getUnits().getSuccOf(unit)) {
+				if (region.contains(unit)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static void redirect(List<UnitBox> unitBoxes, Unit from, Unit to) {
+		for (UnitBox unitBox : unitBoxes) {
+			if (unitBox.getUnit() == from) {
+				unitBox.setUnit(to);
+			}
+		}
+	}
+
+	private static Local getColdLocal(HashMap<Local, Local> coldLocals,
+	                                  Body coldBody,
+	                                  Local local) {
+		Local coldLocal = coldLocals.get(local);
+		if (coldLocal == null) {
+			coldLocal = (Local) local.clone();
+			coldBody.getLocals().add(coldLocal);
+			coldLocals.put(local, coldLocal);
+		}
+		return coldLocal;
+	}
+
+	private static String getColdName(SootClass sootClass, SootMethod sootCaller) {
+		String prefix = sootCaller.getName() + "$cold";
+		int i = 0;
+		while (sootClass.declaresMethodByName(prefix + i)) {
+			++i;
+		}
+		return prefix + i;
+	}
+}
@@ -0,0 +1,299 @@
+package InlinerTool;
+
+import soot.Body;
+import soot.PackManager;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootField;
+import soot.SootMethod;
+import soot.options.Options;
+import soot.tagkit.Host;
+import soot.tagkit.InnerClassTagAggregator;
+import soot.tagkit.Tag;
+import soot.toolkits.scalar.ConstantInitializerToTagTransformer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Loads the Soot Scene once and inlines one inline targets file after
+// another against it:
+//   java InlinerTool.DaemonMain <soot options>
+// Each line on standard input is a request:
+//   <inline-targets> <output-dir> [<option>:<value>]...
+// with the phase options of wjtp.InlinerTool, which otherwise have their
+// defaults. The application classes that declare a caller or callee of the
+// request, and any others it changed, are written to <output-dir> with the
+// decision report. The Scene is then put back as it was loaded, and a line
+// starting with "InlinerDaemon: ok" or "InlinerDaemon: failed" answers the
+// request.
+public class DaemonMain {
+
+	private static final String RESPONSE = "InlinerDaemon: ";
+	private static final String REPORT = "inliner-report.jsonl";
+
+	// The members of a class as it was loaded, to undo what a request added,
+	// removed or made public and the tags writing it added
+	private static class ClassState {
+		int modifiers;
+		List<Tag> tags;
+		HashMap<SootMethod, Integer> methodModifiers = new HashMap<>();
+		HashMap<SootField, Integer> fieldModifiers = new HashMap<>();
+		HashMap<SootField, List<Tag>> fieldTags = new HashMap<>();
+
+		ClassState(SootClass sootClass) {
+			modifiers = sootClass.getModifiers();
+			tags = new ArrayList<>(sootClass.getTags());
+			for (SootMethod sootMethod : sootClass.getMethods()) {
+				methodModifiers.put(sootMethod, sootMethod.getModifiers());
+			}
+			for (SootField sootField : sootClass.getFields()) {
+				fieldModifiers.put(sootField, sootField.getModifiers());
+				fieldTags.put(sootField, new ArrayList<>(sootField.getTags()));
+			}
+		}
+
+		boolean matches(SootClass sootClass) {
+			if (sootClass.getModifiers() != modifiers
+			    || sootClass.getMethodCount() != methodModifiers.size()
+			    || sootClass.getFieldCount() != fieldModifiers.size()) {
+				return false;
+			}
+			for (SootMethod sootMethod : sootClass.getMethods()) {
+				Integer methodModifier = methodModifiers.get(sootMethod);
+				if (methodModifier == null
+				    || methodModifier != sootMethod.getModifiers()) {
+					return false;
+				}
+			}
+			for (SootField sootField : sootClass.getFields()) {
+				Integer fieldModifier = fieldModifiers.get(sootField);
+				if (fieldModifier == null
+				    || fieldModifier != sootField.getModifiers()) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		void restore(SootClass sootClass) {
+			for (SootMethod sootMethod : new ArrayList<>(sootClass.getMethods())) {
+				if (!methodModifiers.containsKey(sootMethod)) {
+					sootClass.removeMethod(sootMethod);
+				}
+			}
+			// Pruning removes methods
+			for (SootMethod sootMethod : methodModifiers.keySet()) {
+				if (!sootMethod.isDeclared()) {
+					sootClass.addMethod(sootMethod);
+				}
+			}
+			for (SootField sootField : new ArrayList<>(sootClass.getFields())) {
+				if (!fieldModifiers.containsKey(sootField)) {
+					sootClass.removeField(sootField);
+				}
+			}
+			sootClass.setModifiers(modifiers);
+			restoreTags(sootClass, tags);
+			for (Map.Entry<SootMethod, Integer> entry : methodModifiers.entrySet()) {
+				entry.getKey().setModifiers(entry.getValue());
+			}
+			for (Map.Entry<SootField, Integer> entry : fieldModifiers.entrySet()) {
+				entry.getKey().setModifiers(entry.getValue());
+				restoreTags(entry.getKey(), fieldTags.get(entry.getKey()));
+			}
+		}
+
+		private static void restoreTags(Host host, List<Tag> tags) {
+			host.removeAllTags();
+			for (Tag tag : tags) {
+				host.addTag(tag);
+			}
+		}
+	}
+
+	private HashMap<SootClass, ClassState> classStates = new HashMap<>();
+	// The bodies Soot built from the class files. Requests work on copies.
+	private HashMap<SootMethod, Body> pristineBodies = new HashMap<>();
+	private HashMap<String, String> defaultOptions = new HashMap<>();
+
+	public static void main(String[] args) throws IOException {
+		List<String> argsList = new ArrayList<String>(Arrays.asList(args));
+		argsList.addAll(Arrays.asList(Main.SOOT_OPTIONS));
+		if (!Options.v().parse(argsList.toArray(new String[0]))) {
+			System.exit(1);
+		}
+		long loadStart = System.nanoTime();
+		Scene.v().loadNecessaryClasses();
+		DaemonMain daemon = new DaemonMain();
+		System.out.println(RESPONSE + "ready, "
+			+ Scene.v().getApplicationClasses().size() + " application classes loaded in "
+			+ (System.nanoTime() - loadStart) / 1000000 + " ms");
+
+		BufferedReader bufferedReader =
+			new BufferedReader(new InputStreamReader(System.in));
+		String line = null;
+		while ((line = bufferedReader.readLine()) != null) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			long requestStart = System.nanoTime();
+			try {
+				String[] lineSplit = line.split("\\s+");
+				int written = daemon.handle(lineSplit);
+				System.out.println(RESPONSE + "ok " + lineSplit[1] + " " + written
+					+ " classes in " + (System.nanoTime() - requestStart) / 1000000
+					+ " ms");
+			} catch (IOException | RuntimeException e) {
+				System.out.println(RESPONSE + "failed " + e);
+			}
+		}
+	}
+
+	private DaemonMain() {
+		for (String option : Main.DEFAULT_TRANSFORM_OPTIONS.split(" ")) {
+			String[] optionSplit = option.split(":");
+			defaultOptions.put(optionSplit[0], optionSplit[1]);
+		}
+		for (SootClass sootClass : Scene.v().getApplicationClasses()) {
+			saveState(sootClass);
+		}
+	}
+
+	// Returns the number of classes written
+	private int handle(String[] request) throws IOException {
+		if (request.length < 2) {
+			throw new IllegalArgumentException(
+				"expected <inline-targets> <output-dir> [<option>:<value>]...");
+		}
+		HashMap<String, String> options = new HashMap<>(defaultOptions);
+		for (int i = 2; i < request.length; ++i) {
+			String[] optionSplit = request[i].split(":", 2);
+			if (optionSplit.length != 2 || !options.containsKey(optionSplit[0])) {
+				throw new IllegalArgumentException("unknown option " + request[i]);
+			}
+			options.put(optionSplit[0], optionSplit[1]);
+		}
+		File outputDir = new File(request[1]);
+		if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+			throw new IOException(outputDir + ": cannot create directory");
+		}
+
+		InlinerTransformer inlinerTransformer = new InlinerTransformer(request[0]);
+		DecisionReport decisionReport =
+			new DecisionReport(new File(outputDir, REPORT).getPath());
+		inlinerTransformer.setReport(decisionReport);
+
+		// Only the bodies of the classes a request can inline into or from
+		// are copied
+		LinkedHashSet<SootClass> touchedClasses = new LinkedHashSet<>();
+		for (String className : inlinerTransformer.getTargetClassNames()) {
+			SootClass sootClass = Scene.v().getSootClassUnsafe(className);
+			if (sootClass == null || sootClass.isPhantom()
+			    || sootClass.resolvingLevel() < SootClass.SIGNATURES) {
+				continue;
+			}
+			saveState(sootClass);
+			saveBodies(sootClass);
+			touchedClasses.add(sootClass);
+		}
+		try {
+			inlinerTransformer.transform("wjtp.InlinerTool", options);
+
+			Set<SootClass> changedClasses = new LinkedHashSet<>();
+			for (Map.Entry<SootClass, ClassState> entry : classStates.entrySet()) {
+				SootClass sootClass = entry.getKey();
+				if (sootClass.isApplicationClass()
+				    && (touchedClasses.contains(sootClass)
+				        || !entry.getValue().matches(sootClass))) {
+					changedClasses.add(sootClass);
+				}
+			}
+			// Writing replaces their bodies with Baf, and moves constant
+			// initializers out of them
+			for (SootClass sootClass : changedClasses) {
+				saveBodies(sootClass);
+			}
+			touchedClasses.addAll(changedClasses);
+			write(changedClasses, outputDir);
+			decisionReport.write();
+			return changedClasses.size();
+		} finally {
+			restore(touchedClasses);
+		}
+	}
+
+	private void saveState(SootClass sootClass) {
+		if (!classStates.containsKey(sootClass)
+		    && sootClass.resolvingLevel() >= SootClass.SIGNATURES) {
+			classStates.put(sootClass, new ClassState(sootClass));
+		}
+	}
+
+	private void saveBodies(SootClass sootClass) {
+		if (sootClass.resolvingLevel() < SootClass.BODIES) {
+			return;
+		}
+		for (SootMethod sootMethod : sootClass.getMethods()) {
+			if (!sootMethod.isConcrete() || pristineBodies.containsKey(sootMethod)) {
+				continue;
+			}
+			// Methods Soot cannot build a body for are never inlined
+			try {
+				pristineBodies.put(sootMethod,
+				                   (Body) sootMethod.retrieveActiveBody().clone());
+			} catch (RuntimeException e) {
+				continue;
+			}
+		}
+	}
+
+	// Writes only changedClasses, by making the other application classes
+	// library classes meanwhile, with the steps soot.Main takes after the
+	// whole program packs
+	private void write(Set<SootClass> changedClasses, File outputDir) {
+		Options.v().set_output_dir(outputDir.getPath());
+		List<SootClass> applicationClasses =
+			new ArrayList<>(Scene.v().getApplicationClasses());
+		for (SootClass sootClass : applicationClasses) {
+			if (!changedClasses.contains(sootClass)) {
+				sootClass.setLibraryClass();
+			}
+		}
+		try {
+			for (SootClass sootClass : changedClasses) {
+				ConstantInitializerToTagTransformer.v().transformClass(sootClass, true);
+			}
+			PackManager.v().runBodyPacks();
+			InnerClassTagAggregator.v().transform();
+			PackManager.v().writeOutput();
+		} finally {
+			for (SootClass sootClass : applicationClasses) {
+				sootClass.setApplicationClass();
+			}
+		}
+	}
+
+	private void restore(Set<SootClass> touchedClasses) {
+		for (Map.Entry<SootClass, ClassState> entry : classStates.entrySet()) {
+			entry.getValue().restore(entry.getKey());
+		}
+		for (SootClass sootClass : touchedClasses) {
+			for (SootMethod sootMethod : sootClass.getMethods()) {
+				Body pristineBody = pristineBodies.get(sootMethod);
+				if (pristineBody != null) {
+					sootMethod.setActiveBody((Body) pristineBody.clone());
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,281 @@
+package InlinerTool;
+
+import soot.SootMethod;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Records what became of every call site in the inline targets and why, for
+// -inliner-report. The file has one JSON object per line: a "callsite"
+// record per call site, hottest first, a "pruned" record per class methods
+// were pruned from, then a "counters" and a "phases" record. Records are
+// created while planning, on one thread; during inlining each one is only
+// updated by the thread that inlines its caller.
+public class DecisionReport {
+
+	public static final String INLINED = "inlined";
+	public static final String REJECTED = "rejected";
+	public static final String REUSED = "reused";
+
+	public static class Record {
+		SootMethod sootCaller;
+		String caller;
+		// The method whose body has the call site, the caller or a callee
+		// inlined into it
+		String method;
+		int bytecodeOffset;
+		int depth;
+		long count;
+		// In a loop of the caller or of a callee it is nested in, and in an
+		// OSR compilation
+		boolean loop;
+		boolean osr;
+		List<String> callees = new ArrayList<>();
+		// Estimated bytecode bytes, as the budget sees them, -1 if unknown
+		List<Integer> calleeSizes = new ArrayList<>();
+		int callerSize = -1;
+		int plannedCallerSize = -1;
+		String outcome;
+		String reason;
+		String detail;
+		// The call site whose callee this one is in, null at depth 1
+		Record parent;
+	}
+
+	private String path;
+	private List<Record> records = new ArrayList<>();
+	private HashMap<InlineCallsite, Record> callsiteRecords = new HashMap<>();
+	// Bytecode instructions of each caller before and after the transform
+	private HashMap<SootMethod, Integer> instructionsBefore = new HashMap<>();
+	private HashMap<SootMethod, Integer> instructionsAfter = new HashMap<>();
+	private LinkedHashMap<String, Long> counters = new LinkedHashMap<>();
+	private LinkedHashMap<String, Long> phases = new LinkedHashMap<>();
+	// The methods pruned from each class and their estimated bytes
+	private LinkedHashMap<String, List<String>> prunedMethods = new LinkedHashMap<>();
+	private LinkedHashMap<String, Long> prunedBytes = new LinkedHashMap<>();
+
+	public DecisionReport(String path) {
+		this.path = path;
+	}
+
+	public Record add(InlineCallsite callsite, Record record) {
+		records.add(record);
+		callsiteRecords.put(callsite, record);
+		return record;
+	}
+
+	// null if the call site was never considered
+	public Record get(InlineCallsite callsite) {
+		return callsiteRecords.get(callsite);
+	}
+
+	// Only the first outcome of a call site counts, later checks on the
+	// same call site are not what stopped it
+	public void reject(InlineCallsite callsite, String reason, String detail) {
+		decide(callsite, REJECTED, reason, detail);
+	}
+
+	public void inline(InlineCallsite callsite, String detail) {
+		Record record = callsiteRecords.get(callsite);
+		if (record != null && !INLINED.equals(record.outcome)) {
+			record.outcome = INLINED;
+			record.reason = null;
+			record.detail = detail;
+		}
+	}
+
+	public void reuse(InlineCallsite callsite) {
+		decide(callsite, REUSED, "class-cache", null);
+	}
+
+	public void setInstructions(SootMethod caller, int before, int after) {
+		instructionsBefore.put(caller, before);
+		instructionsAfter.put(caller, after);
+	}
+
+	public void setCounter(String name, long value) {
+		counters.put(name, value);
+	}
+
+	public void addPruned(String className, List<String> methods, long bytes) {
+		prunedMethods.put(className, methods);
+		prunedBytes.put(className, bytes);
+	}
+
+	public void addPhase(String name, long startNanos) {
+		phases.put(name, (System.nanoTime() - startNanos) / 1000000);
+	}
+
+	public void write() throws IOException {
+		TreeMap<String, Long> outcomes = new TreeMap<>();
+		TreeMap<String, Long> reasons = new TreeMap<>();
+		for (Record record : records) {
+			if (record.outcome == null) {
+				// Admitted, but the call was never reached
+				boolean parentInlined = record.parent == null
+					|| INLINED.equals(record.parent.outcome);
+				record.outcome = REJECTED;
+				record.reason = parentInlined ? "not-found" : "parent-not-inlined";
+			}
+			outcomes.merge(record.outcome, 1L, Long::sum);
+			if (record.reason != null) {
+				reasons.merge(record.reason, 1L, Long::sum);
+			}
+		}
+
+		try (BufferedWriter bufferedWriter =
+		     new BufferedWriter(new FileWriter(path))) {
+			for (Record record : records) {
+				bufferedWriter.write(toJson(record));
+				bufferedWriter.newLine();
+			}
+			for (Map.Entry<String, List<String>> entry : prunedMethods.entrySet()) {
+				StringBuilder sb = new StringBuilder("{\"type\":\"pruned\"");
+				appendField(sb, "class", entry.getKey());
+				appendField(sb, "bytes", prunedBytes.get(entry.getKey()));
+				appendList(sb, "methods", entry.getValue());
+				sb.append('}');
+				bufferedWriter.write(sb.toString());
+				bufferedWriter.newLine();
+			}
+
+			StringBuilder sb = new StringBuilder("{\"type\":\"counters\"");
+			appendField(sb, "callsites", records.size());
+			appendMap(sb, "outcomes", outcomes);
+			appendMap(sb, "reasons", reasons);
+			long before = 0;
+			long after = 0;
+			for (Map.Entry<SootMethod, Integer> entry : instructionsBefore.entrySet()) {
+				before += entry.getValue();
+				after += instructionsAfter.get(entry.getKey());
+			}
+			appendField(sb, "callerInstructionsBefore", before);
+			appendField(sb, "callerInstructionsAfter", after);
+			for (Map.Entry<String, Long> entry : counters.entrySet()) {
+				appendField(sb, entry.getKey(), entry.getValue());
+			}
+			sb.append('}');
+			bufferedWriter.write(sb.toString());
+			bufferedWriter.newLine();
+
+			sb = new StringBuilder("{\"type\":\"phases\"");
+			appendMap(sb, "millis", phases);
+			sb.append('}');
+			bufferedWriter.write(sb.toString());
+			bufferedWriter.newLine();
+		}
+		System.out.println("InlinerTool: report of " + records.size()
+			+ " call sites written to " + path);
+	}
+
+	private void decide(InlineCallsite callsite, String outcome,
+	                    String reason, String detail) {
+		Record record = callsiteRecords.get(callsite);
+		if (record == null || record.outcome != null) {
+			return;
+		}
+		record.outcome = outcome;
+		record.reason = reason;
+		record.detail = detail;
+	}
+
+	private String toJson(Record record) {
+		StringBuilder sb = new StringBuilder("{\"type\":\"callsite\"");
+		appendField(sb, "caller", record.caller);
+		appendField(sb, "method", record.method);
+		appendField(sb, "bci", record.bytecodeOffset);
+		appendField(sb, "depth", record.depth);
+		appendField(sb, "count", record.count);
+		appendField(sb, "loop", record.loop);
+		appendField(sb, "osr", record.osr);
+		appendField(sb, "outcome", record.outcome);
+		appendField(sb, "reason", record.reason);
+		appendField(sb, "detail", record.detail);
+
+		appendList(sb, "callees", record.callees);
+		sb.append(",\"calleeSizes\":[");
+		for (int i = 0; i < record.calleeSizes.size(); ++i) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append(record.calleeSizes.get(i));
+		}
+		sb.append(']');
+		appendField(sb, "callerSize", record.callerSize);
+		appendField(sb, "plannedCallerSize", record.plannedCallerSize);
+		Integer before = instructionsBefore.get(record.sootCaller);
+		if (before != null) {
+			appendField(sb, "callerInstructionsBefore", before);
+			appendField(sb, "callerInstructionsAfter",
+			            instructionsAfter.get(record.sootCaller));
+		}
+		sb.append('}');
+		return sb.toString();
+	}
+
+	private static void appendMap(StringBuilder sb, String name,
+	                              Map<String, Long> values) {
+		sb.append(",\"").append(name).append("\":{");
+		boolean first = true;
+		for (Map.Entry<String, Long> entry : values.entrySet()) {
+			if (!first) {
+				sb.append(',');
+			}
+			first = false;
+			appendString(sb, entry.getKey());
+			sb.append(':').append(entry.getValue());
+		}
+		sb.append('}');
+	}
+
+	private static void appendList(StringBuilder sb, String name,
+	                               List<String> values) {
+		sb.append(",\"").append(name).append("\":[");
+		for (int i = 0; i < values.size(); ++i) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			appendString(sb, values.get(i));
+		}
+		sb.append(']');
+	}
+
+	private static void appendField(StringBuilder sb, String name, boolean value) {
+		sb.append(",\"").append(name).append("\":").append(value);
+	}
+
+	private static void appendField(StringBuilder sb, String name, long value) {
+		sb.append(",\"").append(name).append("\":").append(value);
+	}
+
+	// Omitted when value is null
+	private static void appendField(StringBuilder sb, String name, String value) {
+		if (value == null) {
+			return;
+		}
+		sb.append(",\"").append(name).append("\":");
+		appendString(sb, value);
+	}
+
+	private static void appendString(StringBuilder sb, String value) {
+		sb.append('"');
+		for (int i = 0; i < value.length(); ++i) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		sb.append('"');
+	}
+}
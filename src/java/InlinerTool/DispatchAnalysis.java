@@ -0,0 +1,79 @@
+package InlinerTool;
+
+import soot.Hierarchy;
+import soot.RefType;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.Type;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.InterfaceInvokeExpr;
+import soot.jimple.InvokeExpr;
+import soot.jimple.VirtualInvokeExpr;
+
+import java.util.Collections;
+import java.util.List;
+
+// Finds the methods a call can dispatch to with class hierarchy analysis
+// over the Scene. This takes the Scene to be the whole program, as in a
+// closed-world deployment where nothing Soot has not seen is loaded at run
+// time. Hierarchy builds some of its caches lazily, so this is only used
+// before inlining starts.
+public class DispatchAnalysis {
+
+	private Hierarchy hierarchy;
+
+	public DispatchAnalysis() {
+		hierarchy = Scene.v().getActiveHierarchy();
+	}
+
+	// Returns null when the targets are not known, because the receiver's
+	// type or part of its hierarchy is phantom
+	public List<SootMethod> getTargets(InvokeExpr invokeExpr) {
+		SootMethod sootMethod = invokeExpr.getMethodRef().tryResolve();
+		if (sootMethod == null) {
+			return null;
+		}
+		// Static and special calls are bound at compile time
+		if (!(invokeExpr instanceof VirtualInvokeExpr)
+		    && !(invokeExpr instanceof InterfaceInvokeExpr)) {
+			return Collections.singletonList(sootMethod);
+		}
+
+		Type baseType = ((InstanceInvokeExpr) invokeExpr).getBase().getType();
+		if (!(baseType instanceof RefType)) {
+			return null;
+		}
+		SootClass baseClass = ((RefType) baseType).getSootClass();
+		if (hasPhantomSuperclass(baseClass)) {
+			return null;
+		}
+
+		List<SootClass> classes = baseClass.isInterface()
+			? hierarchy.getImplementersOf(baseClass)
+			: hierarchy.getSubclassesOfIncluding(baseClass);
+		for (SootClass sootClass : classes) {
+			if (hasPhantomSuperclass(sootClass)) {
+				return null;
+			}
+		}
+
+		try {
+			return hierarchy.resolveAbstractDispatch(baseClass, sootMethod);
+		} catch (RuntimeException e) {
+			// No concrete implementation in some class, the hierarchy is
+			// not what the bytecode was compiled against
+			return null;
+		}
+	}
+
+	private boolean hasPhantomSuperclass(SootClass sootClass) {
+		while (sootClass != null) {
+			if (sootClass.isPhantom()) {
+				return true;
+			}
+			sootClass = sootClass.hasSuperclass() ? sootClass.getSuperclass() : null;
+		}
+		return false;
+	}
+}
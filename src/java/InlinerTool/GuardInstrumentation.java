@@ -0,0 +1,113 @@
+package InlinerTool;
+
+import soot.IntType;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethodRef;
+import soot.VoidType;
+import soot.jimple.IntConstant;
+import soot.jimple.Jimple;
+import soot.jimple.Stmt;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Numbers the branches of guarded call sites for InlinerRuntime.GuardCounters
+// and writes the guard sites file it reads. Every guarded call site gets a
+// slot per profiled receiver and one for its fallback, in the order the
+// budget admits them, so the numbering does not depend on the number of
+// threads. Only the slots of guards that were inserted are written.
+public class GuardInstrumentation {
+
+	public static final String COUNTERS_CLASS = "InlinerRuntime.GuardCounters";
+
+	private String sitesPath;
+	// The guard sites file line of each slot
+	private List<String> slots = new ArrayList<>();
+	private HashMap<InlineCallsite, Integer> firstSlots = new HashMap<>();
+	private SootMethodRef hitRef;
+	private Set<Integer> usedSlots = ConcurrentHashMap.newKeySet();
+
+	public GuardInstrumentation(String sitesPath) {
+		this.sitesPath = sitesPath;
+	}
+
+	// callerPath is the caller's signature, preceded by the path down to it
+	// for a nested call site, as in the inline targets file
+	public void reserve(InlineCallsite callsite, String callerPath,
+	                    MethodIndex methodIndex) {
+		if (firstSlots.containsKey(callsite)) {
+			return;
+		}
+		String site = callerPath + "@" + callsite.getBytecodeOffset();
+		firstSlots.put(callsite, slots.size());
+		for (InlineTarget target : callsite.getTargets()) {
+			SootClass receiverClass = target.getReceiverClass();
+			slots.add(site + " " + methodIndex.getSignature(target.getCalleeId())
+				+ " " + (receiverClass == null
+				         ? "-" : receiverClass.getName().replace('.', '/')));
+		}
+		slots.add(site);
+	}
+
+	// Returns a call counting the guard of the target at targetIndex in
+	// callsite's targets, or null if callsite has no slots
+	public Stmt newHit(InlineCallsite callsite, int targetIndex) {
+		Integer firstSlot = firstSlots.get(callsite);
+		if (firstSlot == null) {
+			return null;
+		}
+		return newHitStmt(firstSlot + targetIndex);
+	}
+
+	// Returns a call counting callsite's fallback, or null if callsite has
+	// no slots
+	public Stmt newFallbackHit(InlineCallsite callsite) {
+		Integer firstSlot = firstSlots.get(callsite);
+		if (firstSlot == null) {
+			return null;
+		}
+		return newHitStmt(firstSlot + callsite.getTargets().size());
+	}
+
+	public void write() throws IOException {
+		int written = 0;
+		try (BufferedWriter bufferedWriter =
+		     new BufferedWriter(new FileWriter(sitesPath))) {
+			for (int slot = 0; slot < slots.size(); ++slot) {
+				if (!usedSlots.contains(slot)) {
+					continue;
+				}
+				bufferedWriter.write(slot + " " + slots.get(slot));
+				bufferedWriter.newLine();
+				++written;
+			}
+		}
+		System.out.println("InlinerTool: " + written + " guard counters written to "
+			+ sitesPath);
+	}
+
+	private Stmt newHitStmt(int slot) {
+		usedSlots.add(slot);
+		return Jimple.v().newInvokeStmt(Jimple.v().newStaticInvokeExpr(
+			getHitRef(), IntConstant.v(slot)));
+	}
+
+	private synchronized SootMethodRef getHitRef() {
+		if (hitRef == null) {
+			// A phantom class when the runtime is not on Soot's class path
+			SootClass countersClass = Scene.v().getSootClass(COUNTERS_CLASS);
+			hitRef = Scene.v().makeMethodRef(
+				countersClass, "hit", Collections.singletonList(IntType.v()),
+				VoidType.v(), true);
+		}
+		return hitRef;
+	}
+}
@@ -0,0 +1,109 @@
+package InlinerTool;
+
+import soot.Body;
+import soot.SootMethod;
+import soot.Unit;
+import soot.tagkit.BytecodeOffsetTag;
+
+import java.util.HashMap;
+import java.util.List;
+
+// Keeps inlining within the limits HotSpot's JIT works under. Sizes are
+// estimated in bytecode bytes: the original size comes from the largest
+// bytecode offset in the body (-keep-offset), and an inlined call site grows
+// its caller by the size of each callee plus the guard around it. HotSpot
+// does not compile methods larger than HugeMethodLimit (8000 bytes), which is
+// the default caller limit.
+public class InlineBudget {
+
+	// type = receiver.getClass(); if type != class "A" goto l;
+	// receiver = (A) base; goto done
+	private static final int GUARD_SIZE = 16;
+	// Used when a body has no bytecode offsets
+	private static final int BYTES_PER_UNIT = 3;
+
+	private int maxCallerSize;
+	private int maxCalleeSize;
+	private long maxTotalGrowth;
+
+	// Filled lazily on one thread. InlinerTransformer sizes every callee
+	// before inlining starts, after which the map is only read.
+	private HashMap<SootMethod, Integer> sizes = new HashMap<>();
+	private long totalGrowth = 0;
+
+	// A limit of zero means no limit
+	public InlineBudget(int maxCallerSize, int maxCalleeSize,
+	                    long maxTotalGrowth) {
+		this.maxCallerSize = maxCallerSize;
+		this.maxCalleeSize = maxCalleeSize;
+		this.maxTotalGrowth = maxTotalGrowth;
+	}
+
+	public int getSize(SootMethod method) {
+		Integer size = sizes.get(method);
+		if (size == null) {
+			size = estimateSize(method.retrieveActiveBody());
+			sizes.put(method, size);
+		}
+		return size;
+	}
+
+	public boolean isCalleeWithinLimit(SootMethod callee) {
+		return maxCalleeSize == 0 || getSize(callee) <= maxCalleeSize;
+	}
+
+	// Returns null and charges the budget if inlining callees at one call
+	// site of caller fits, otherwise returns why it does not
+	public String admit(SootMethod caller, List<SootMethod> callees,
+	                    boolean guarded) {
+		int growth = 0;
+		for (SootMethod callee : callees) {
+			if (!isCalleeWithinLimit(callee)) {
+				return "callee " + callee.getSignature() + " is "
+					+ getSize(callee) + " bytes, limit " + maxCalleeSize;
+			}
+			growth += getSize(callee);
+			if (guarded) {
+				growth += GUARD_SIZE;
+			}
+		}
+
+		int callerSize = getSize(caller);
+		if (maxCallerSize != 0 && callerSize + growth > maxCallerSize) {
+			return "caller would grow from " + callerSize + " to "
+				+ (callerSize + growth) + " bytes, limit " + maxCallerSize;
+		}
+
+		if (maxTotalGrowth != 0 && totalGrowth + growth > maxTotalGrowth) {
+			return "total growth would reach " + (totalGrowth + growth)
+				+ " bytes, limit " + maxTotalGrowth;
+		}
+
+		sizes.put(caller, callerSize + growth);
+		totalGrowth += growth;
+		return null;
+	}
+
+	public long getTotalGrowth() {
+		return totalGrowth;
+	}
+
+	private int estimateSize(Body body) {
+		int maxBytecodeOffset = -1;
+		for (Unit unit : body.getUnits()) {
+			BytecodeOffsetTag bytecodeOffsetTag =
+				(BytecodeOffsetTag) unit.getTag("BytecodeOffsetTag");
+			if (bytecodeOffsetTag == null) {
+				continue;
+			}
+			maxBytecodeOffset = Math.max(maxBytecodeOffset,
+			                             bytecodeOffsetTag.getBytecodeOffset());
+		}
+
+		if (maxBytecodeOffset < 0) {
+			return body.getUnits().size() * BYTES_PER_UNIT;
+		}
+		// The last instruction is usually a one byte return or throw
+		return maxBytecodeOffset + 1;
+	}
+}
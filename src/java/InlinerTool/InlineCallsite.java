@@ -0,0 +1,107 @@
+package InlinerTool;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+// One call site in the inline targets file and the receivers profiled there
+public class InlineCallsite {
+
+	private int bytecodeOffset;
+	// Number of times the call site was invoked, zero when the targets file
+	// does not record it
+	private long count = 0;
+	// HotSpot compiled the call site in an on-stack replacement, so it runs
+	// in a loop that was hot before its method was compiled
+	private boolean osr = false;
+	private List<InlineTarget> targets = new ArrayList<>();
+	// Call sites HotSpot inlined within the copies of a callee inlined here,
+	// by callee id and then bytecode offset in the callee. Null until the
+	// targets file names one.
+	private HashMap<Integer, HashMap<Integer, InlineCallsite>> nestedCallsites;
+
+	public InlineCallsite(int bytecodeOffset) {
+		this.bytecodeOffset = bytecodeOffset;
+	}
+
+	public int getBytecodeOffset() {
+		return bytecodeOffset;
+	}
+
+	// Receivers the profile did not keep still count towards the call site,
+	// so the recorded count is used when there is one
+	public long getCount() {
+		long receiverTotal = 0;
+		for (InlineTarget target : targets) {
+			receiverTotal += target.getCount();
+		}
+		return Math.max(count, receiverTotal);
+	}
+
+	// Every receiver line of a call site repeats its count
+	public void recordCount(long count) {
+		this.count = Math.max(this.count, count);
+	}
+
+	public boolean isOsr() {
+		return osr;
+	}
+
+	public void recordOsr(boolean osr) {
+		this.osr |= osr;
+	}
+
+	public List<InlineTarget> getTargets() {
+		return targets;
+	}
+
+	public void addTarget(InlineTarget target) {
+		// A callee only named on the path of a nested call site has no
+		// profile, and gives way to the line that has one
+		for (int i = 0; i < targets.size(); ++i) {
+			InlineTarget other = targets.get(i);
+			if (other.getCalleeId() == target.getCalleeId()
+			    && other.getCount() == 0
+			    && other.getReceiverClassName() == null) {
+				targets.set(i, target);
+				return;
+			}
+		}
+		targets.add(target);
+	}
+
+	public InlineTarget getTarget(int calleeId) {
+		for (InlineTarget target : targets) {
+			if (target.getCalleeId() == calleeId) {
+				return target;
+			}
+		}
+		return null;
+	}
+
+	// null if no call site within calleeId is inlined
+	public HashMap<Integer, InlineCallsite> getNestedCallsites(int calleeId) {
+		if (nestedCallsites == null) {
+			return null;
+		}
+		return nestedCallsites.get(calleeId);
+	}
+
+	public InlineCallsite getNestedCallsite(int calleeId, int bytecodeOffset) {
+		if (nestedCallsites == null) {
+			nestedCallsites = new HashMap<>();
+		}
+		HashMap<Integer, InlineCallsite> calleeCallsites =
+			nestedCallsites.get(calleeId);
+		if (calleeCallsites == null) {
+			calleeCallsites = new HashMap<>();
+			nestedCallsites.put(calleeId, calleeCallsites);
+		}
+		InlineCallsite callsite = calleeCallsites.get(bytecodeOffset);
+		if (callsite == null) {
+			callsite = new InlineCallsite(bytecodeOffset);
+			calleeCallsites.put(bytecodeOffset, callsite);
+		}
+		return callsite;
+	}
+}
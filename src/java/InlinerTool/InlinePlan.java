@@ -0,0 +1,409 @@
+package InlinerTool;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+// A binary inline targets file, which is memory-mapped instead of read into
+// the heap. Each signature and receiver class name is stored once, in a
+// sorted string table whose index is its id, and the receivers are stored as
+// primitive columns sorted by caller id and bytecode offset:
+//
+//   int magic, int version, int string count, int receiver count,
+//   int path pool length
+//   int[string count + 1] string offsets, char[] strings
+//   padding to 8 bytes
+//   long[receiver count] call site count, receiver count
+//   int[receiver count] caller, bytecode offset, callee, receiver class
+//     (-1 for none), path (-1 for a call site in the caller's own body),
+//     osr (1 for a call site of an OSR compilation, from version 2)
+//   int[path pool length] paths
+//
+// A path leads down to a nested call site from the call site at the
+// receiver's bytecode offset in the caller: its length, then a callee id and
+// bytecode offset per level. Signatures are looked up by binary search,
+// without allocating, and only the call sites of callers found in the Scene
+// are read into the heap. Written by PlanMain from an inline targets file,
+// and accepted wherever one is read.
+public class InlinePlan {
+
+	// "\x89INL", which no text file starts with
+	public static final int MAGIC = 0x89494e4c;
+	public static final int VERSION = 2;
+	private static final int HEADER_SIZE = 20;
+
+	private String planPath;
+	private int stringCount;
+	private int receiverCount;
+	private IntBuffer stringOffsets;
+	private CharBuffer strings;
+	private LongBuffer callsiteCounts;
+	private LongBuffer receiverCounts;
+	private IntBuffer callers;
+	private IntBuffer bytecodeOffsets;
+	private IntBuffer callees;
+	private IntBuffer receiverClasses;
+	private IntBuffer paths;
+	// null in version 1 plans
+	private IntBuffer osrs;
+	private IntBuffer pathPool;
+
+	public static boolean isPlan(String path) throws IOException {
+		try (InputStream inputStream = Files.newInputStream(Paths.get(path))) {
+			int magic = 0;
+			for (int i = 0; i < 4; ++i) {
+				int b = inputStream.read();
+				if (b < 0) {
+					return false;
+				}
+				magic = (magic << 8) | b;
+			}
+			return magic == MAGIC;
+		}
+	}
+
+	public static InlinePlan map(String planPath) throws IOException {
+		try (FileChannel channel =
+		     FileChannel.open(Paths.get(planPath), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(planPath + ": plans over 2 GB are not supported");
+			}
+			// The mapping stays valid once the channel is closed
+			ByteBuffer buffer =
+				channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			try {
+				return new InlinePlan(planPath, buffer);
+			} catch (BufferUnderflowException | IllegalArgumentException
+			         | IndexOutOfBoundsException e) {
+				throw new IOException(planPath + ": truncated inline plan", e);
+			}
+		}
+	}
+
+	private InlinePlan(String planPath, ByteBuffer buffer) throws IOException {
+		this.planPath = planPath;
+		if (buffer.getInt(0) != MAGIC) {
+			throw new IOException(planPath + ": not an inline plan");
+		}
+		int version = buffer.getInt(4);
+		if (version < 1 || version > VERSION) {
+			throw new IOException(planPath + ": unsupported inline plan version "
+				+ version);
+		}
+		stringCount = buffer.getInt(8);
+		receiverCount = buffer.getInt(12);
+		int pathPoolLength = buffer.getInt(16);
+
+		int position = HEADER_SIZE;
+		stringOffsets = slice(buffer, position, 4 * (stringCount + 1)).asIntBuffer();
+		position += 4 * (stringCount + 1);
+		int stringLength = stringOffsets.get(stringCount);
+		strings = slice(buffer, position, 2 * stringLength).asCharBuffer();
+		position = pad(position + 2 * stringLength);
+		callsiteCounts = slice(buffer, position, 8 * receiverCount).asLongBuffer();
+		position += 8 * receiverCount;
+		receiverCounts = slice(buffer, position, 8 * receiverCount).asLongBuffer();
+		position += 8 * receiverCount;
+		callers = slice(buffer, position, 4 * receiverCount).asIntBuffer();
+		position += 4 * receiverCount;
+		bytecodeOffsets = slice(buffer, position, 4 * receiverCount).asIntBuffer();
+		position += 4 * receiverCount;
+		callees = slice(buffer, position, 4 * receiverCount).asIntBuffer();
+		position += 4 * receiverCount;
+		receiverClasses = slice(buffer, position, 4 * receiverCount).asIntBuffer();
+		position += 4 * receiverCount;
+		paths = slice(buffer, position, 4 * receiverCount).asIntBuffer();
+		position += 4 * receiverCount;
+		if (version >= 2) {
+			osrs = slice(buffer, position, 4 * receiverCount).asIntBuffer();
+			position += 4 * receiverCount;
+		}
+		pathPool = slice(buffer, position, 4 * pathPoolLength).asIntBuffer();
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int position, int size) {
+		ByteBuffer slice = buffer.duplicate();
+		slice.position(position);
+		slice.limit(position + size);
+		return slice.slice();
+	}
+
+	private static int pad(int position) {
+		return (position + 7) & ~7;
+	}
+
+	public int getStringCount() {
+		return stringCount;
+	}
+
+	public int getReceiverCount() {
+		return receiverCount;
+	}
+
+	public String getString(int id) {
+		int start = stringOffsets.get(id);
+		char[] chars = new char[stringOffsets.get(id + 1) - start];
+		for (int i = 0; i < chars.length; ++i) {
+			chars[i] = strings.get(start + i);
+		}
+		return new String(chars);
+	}
+
+	// The id of string, or -1 if the plan does not have it
+	public int findString(String string) {
+		int low = 0;
+		int high = stringCount - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int comparison = compareString(middle, string);
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	// Orders as String.compareTo does
+	private int compareString(int id, String string) {
+		int start = stringOffsets.get(id);
+		int length = stringOffsets.get(id + 1) - start;
+		int common = Math.min(length, string.length());
+		for (int i = 0; i < common; ++i) {
+			char c = strings.get(start + i);
+			if (c != string.charAt(i)) {
+				return c - string.charAt(i);
+			}
+		}
+		return length - string.length();
+	}
+
+	// The ids of the callers and callees, including those on paths, which
+	// leaves out the receiver class names
+	public BitSet getMethodIds() {
+		BitSet methodIds = new BitSet(stringCount);
+		for (int i = 0; i < receiverCount; ++i) {
+			methodIds.set(callers.get(i));
+			methodIds.set(callees.get(i));
+		}
+		for (int i = 0; i < pathPool.limit(); i += 1 + 2 * pathPool.get(i)) {
+			for (int level = 0; level < pathPool.get(i); ++level) {
+				methodIds.set(pathPool.get(i + 1 + 2 * level));
+			}
+		}
+		return methodIds;
+	}
+
+	// Returns the call sites as InlineTargetsReader does, with the plan's
+	// string ids as methodIndex's ids. With resolvedOnly, only the call sites
+	// of callers methodIndex resolved are read.
+	public HashMap<Integer, HashMap<Integer, InlineCallsite>> read(
+		MethodIndex methodIndex, boolean resolvedOnly) throws IOException {
+		HashMap<Integer, HashMap<Integer, InlineCallsite>> inlineTargets =
+			new HashMap<>();
+		try {
+			for (int i = 0; i < receiverCount; ++i) {
+				int callerId = callers.get(i);
+				if (resolvedOnly && methodIndex.getMethod(callerId) == null) {
+					continue;
+				}
+				InlineCallsite callsite = InlineTargetsReader.getCallsite(
+					inlineTargets, callerId, bytecodeOffsets.get(i));
+				int path = paths.get(i);
+				if (path >= 0) {
+					for (int level = 0; level < pathPool.get(path); ++level) {
+						callsite = InlineTargetsReader.getNestedCallsite(
+							callsite,
+							pathPool.get(path + 1 + 2 * level),
+							pathPool.get(path + 2 + 2 * level));
+					}
+				}
+				int receiverClass = receiverClasses.get(i);
+				callsite.recordCount(callsiteCounts.get(i));
+				callsite.recordOsr(osrs != null && osrs.get(i) != 0);
+				callsite.addTarget(new InlineTarget(
+					callees.get(i),
+					receiverCounts.get(i),
+					receiverClass < 0 ? null : getString(receiverClass)));
+			}
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException(planPath + ": malformed inline plan", e);
+		}
+		return inlineTargets;
+	}
+
+	private static class Row {
+		int callerId;
+		int bytecodeOffset;
+		int calleeId;
+		String receiverClassName;
+		// Start of the path in the pool, or -1
+		int path;
+		long callsiteCount;
+		long receiverCount;
+		boolean osr;
+	}
+
+	// Writes the call sites InlineTargetsReader read, with methodIndex's ids,
+	// as a plan
+	public static void write(
+		String planPath,
+		HashMap<Integer, HashMap<Integer, InlineCallsite>> inlineTargets,
+		MethodIndex methodIndex) throws IOException {
+		List<Row> rows = new ArrayList<>();
+		List<Integer> pool = new ArrayList<>();
+		for (Map.Entry<Integer, HashMap<Integer, InlineCallsite>> entry
+		     : inlineTargets.entrySet()) {
+			for (InlineCallsite callsite : entry.getValue().values()) {
+				addRows(rows, pool, entry.getKey(), callsite.getBytecodeOffset(),
+				        -1, callsite);
+			}
+		}
+
+		TreeSet<String> sortedStrings = new TreeSet<>();
+		for (Row row : rows) {
+			sortedStrings.add(methodIndex.getSignature(row.callerId));
+			sortedStrings.add(methodIndex.getSignature(row.calleeId));
+			if (row.receiverClassName != null) {
+				sortedStrings.add(row.receiverClassName);
+			}
+		}
+		for (int i = 0; i < pool.size(); i += 1 + 2 * pool.get(i)) {
+			for (int level = 0; level < pool.get(i); ++level) {
+				sortedStrings.add(methodIndex.getSignature(pool.get(i + 1 + 2 * level)));
+			}
+		}
+		HashMap<String, Integer> stringIds = new HashMap<>();
+		for (String string : sortedStrings) {
+			stringIds.put(string, stringIds.size());
+		}
+		for (Row row : rows) {
+			row.callerId = stringIds.get(methodIndex.getSignature(row.callerId));
+			row.calleeId = stringIds.get(methodIndex.getSignature(row.calleeId));
+		}
+		for (int i = 0; i < pool.size(); i += 1 + 2 * pool.get(i)) {
+			for (int level = 0; level < pool.get(i); ++level) {
+				int index = i + 1 + 2 * level;
+				pool.set(index, stringIds.get(methodIndex.getSignature(pool.get(index))));
+			}
+		}
+		// Stable, so the receivers of a call site keep their order
+		rows.sort((a, b) -> a.callerId != b.callerId
+			? Integer.compare(a.callerId, b.callerId)
+			: Integer.compare(a.bytecodeOffset, b.bytecodeOffset));
+
+		try (DataOutputStream outputStream = new DataOutputStream(
+		     new BufferedOutputStream(new FileOutputStream(planPath)))) {
+			outputStream.writeInt(MAGIC);
+			outputStream.writeInt(VERSION);
+			outputStream.writeInt(sortedStrings.size());
+			outputStream.writeInt(rows.size());
+			outputStream.writeInt(pool.size());
+			int stringLength = 0;
+			outputStream.writeInt(stringLength);
+			for (String string : sortedStrings) {
+				stringLength += string.length();
+				outputStream.writeInt(stringLength);
+			}
+			for (String string : sortedStrings) {
+				outputStream.writeChars(string);
+			}
+			while (outputStream.size() != pad(outputStream.size())) {
+				outputStream.writeByte(0);
+			}
+			for (Row row : rows) {
+				outputStream.writeLong(row.callsiteCount);
+			}
+			for (Row row : rows) {
+				outputStream.writeLong(row.receiverCount);
+			}
+			for (Row row : rows) {
+				outputStream.writeInt(row.callerId);
+			}
+			for (Row row : rows) {
+				outputStream.writeInt(row.bytecodeOffset);
+			}
+			for (Row row : rows) {
+				outputStream.writeInt(row.calleeId);
+			}
+			for (Row row : rows) {
+				outputStream.writeInt(row.receiverClassName == null
+					? -1 : stringIds.get(row.receiverClassName));
+			}
+			for (Row row : rows) {
+				outputStream.writeInt(row.path);
+			}
+			for (Row row : rows) {
+				outputStream.writeInt(row.osr ? 1 : 0);
+			}
+			for (int value : pool) {
+				outputStream.writeInt(value);
+			}
+		}
+	}
+
+	// A call site's receivers come before the call sites nested within them,
+	// as on a path each callee is a target of the call site before it
+	private static void addRows(List<Row> rows,
+	                            List<Integer> pool,
+	                            int callerId,
+	                            int bytecodeOffset,
+	                            int path,
+	                            InlineCallsite callsite) {
+		for (InlineTarget target : callsite.getTargets()) {
+			Row row = new Row();
+			row.callerId = callerId;
+			row.bytecodeOffset = bytecodeOffset;
+			row.calleeId = target.getCalleeId();
+			row.receiverClassName = target.getReceiverClassName();
+			row.path = path;
+			row.callsiteCount = callsite.getCount();
+			row.receiverCount = target.getCount();
+			row.osr = callsite.isOsr();
+			rows.add(row);
+		}
+		// The nested call sites of a callee seen with several receivers are
+		// only added once
+		HashSet<Integer> nestedCallees = new HashSet<>();
+		for (InlineTarget target : callsite.getTargets()) {
+			HashMap<Integer, InlineCallsite> nestedCallsites =
+				callsite.getNestedCallsites(target.getCalleeId());
+			if (nestedCallsites == null || !nestedCallees.add(target.getCalleeId())) {
+				continue;
+			}
+			for (InlineCallsite nestedCallsite : nestedCallsites.values()) {
+				int nestedPath = pool.size();
+				int levels = path < 0 ? 0 : pool.get(path);
+				pool.add(levels + 1);
+				for (int i = 0; i < 2 * levels; ++i) {
+					pool.add(pool.get(path + 1 + i));
+				}
+				pool.add(target.getCalleeId());
+				pool.add(nestedCallsite.getBytecodeOffset());
+				addRows(rows, pool, callerId, bytecodeOffset, nestedPath,
+				        nestedCallsite);
+			}
+		}
+	}
+}
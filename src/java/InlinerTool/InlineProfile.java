@@ -0,0 +1,213 @@
+package InlinerTool;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// The call sites and receivers of an inline targets file, by HotSpot
+// signature, before any of them is resolved against the Scene. Call sites
+// and receivers keep the order they were added in. The caller of a nested
+// call site is the whole path down to it, caller@bci->...->callee.
+public class InlineProfile {
+
+	public static class Receiver {
+		private String calleeSignature;
+		// HotSpot class name, or null when the profile has none
+		private String receiverClassName;
+		private long count = 0;
+
+		public String getCalleeSignature() {
+			return calleeSignature;
+		}
+
+		public String getReceiverClassName() {
+			return receiverClassName;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public void setCount(long count) {
+			this.count = count;
+		}
+	}
+
+	public static class Callsite {
+		private String callerSignature;
+		private int bytecodeOffset;
+		private long count = 0;
+		private boolean osr = false;
+		// Keyed by callee and receiver class
+		private LinkedHashMap<String, Receiver> receivers = new LinkedHashMap<>();
+
+		public String getCallerSignature() {
+			return callerSignature;
+		}
+
+		public int getBytecodeOffset() {
+			return bytecodeOffset;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public void setCount(long count) {
+			this.count = count;
+		}
+
+		public boolean isOsr() {
+			return osr;
+		}
+
+		public void setOsr(boolean osr) {
+			this.osr = osr;
+		}
+
+		public Collection<Receiver> getReceivers() {
+			return receivers.values();
+		}
+
+		public Receiver getReceiver(String calleeSignature,
+		                            String receiverClassName) {
+			String key = calleeSignature + " " + receiverClassName;
+			Receiver receiver = receivers.get(key);
+			if (receiver == null) {
+				receiver = new Receiver();
+				receiver.calleeSignature = calleeSignature;
+				receiver.receiverClassName = receiverClassName;
+				receivers.put(key, receiver);
+			}
+			return receiver;
+		}
+	}
+
+	private LinkedHashMap<String, Callsite> callsites = new LinkedHashMap<>();
+
+	public static String getKey(String callerSignature, int bytecodeOffset) {
+		return callerSignature + "@" + bytecodeOffset;
+	}
+
+	public Collection<Callsite> getCallsites() {
+		return callsites.values();
+	}
+
+	public Callsite getCallsite(String callerSignature, int bytecodeOffset) {
+		String key = getKey(callerSignature, bytecodeOffset);
+		Callsite callsite = callsites.get(key);
+		if (callsite == null) {
+			callsite = new Callsite();
+			callsite.callerSignature = callerSignature;
+			callsite.bytecodeOffset = bytecodeOffset;
+			callsites.put(key, callsite);
+		}
+		return callsite;
+	}
+
+	// Removes the call site and the call sites nested in it
+	public void removeCallsite(String key) {
+		removeCallsites(Collections.singleton(key));
+	}
+
+	public void removeCallsites(Set<String> keys) {
+		callsites.keySet().removeIf(key -> isOnPath(key, keys));
+	}
+
+	// Whether one of keys is the call site key or a call site on its path
+	public static boolean isOnPath(String key, Set<String> keys) {
+		if (keys.contains(key)) {
+			return true;
+		}
+		String separator = InlineTargetsReader.PATH_SEPARATOR;
+		for (int index = key.indexOf(separator); index != -1;
+		     index = key.indexOf(separator, index + separator.length())) {
+			if (keys.contains(key.substring(0, index))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public int size() {
+		return callsites.size();
+	}
+
+	public void write(InlineTargetsWriter writer) throws IOException {
+		for (Callsite callsite : callsites.values()) {
+			for (Receiver receiver : callsite.receivers.values()) {
+				writer.write(callsite.callerSignature,
+				             callsite.bytecodeOffset,
+				             receiver.calleeSignature,
+				             callsite.count,
+				             receiver.count,
+				             callsite.osr,
+				             receiver.receiverClassName);
+			}
+		}
+	}
+
+	// Reads an inline targets file of any version, or a binary plan
+	public static InlineProfile read(String inlineTargetsPath) throws IOException {
+		MethodIndex methodIndex;
+		HashMap<Integer, HashMap<Integer, InlineCallsite>> inlineTargets;
+		if (InlinePlan.isPlan(inlineTargetsPath)) {
+			InlinePlan plan = InlinePlan.map(inlineTargetsPath);
+			methodIndex = new MethodIndex(plan);
+			inlineTargets = plan.read(methodIndex, false);
+		} else {
+			methodIndex = new MethodIndex();
+			inlineTargets = InlineTargetsReader.read(inlineTargetsPath, methodIndex);
+		}
+
+		InlineProfile profile = new InlineProfile();
+		for (Map.Entry<Integer, HashMap<Integer, InlineCallsite>> entry
+		     : inlineTargets.entrySet()) {
+			String callerSignature = methodIndex.getSignature(entry.getKey());
+			for (InlineCallsite inlineCallsite : entry.getValue().values()) {
+				profile.add(callerSignature, inlineCallsite, methodIndex);
+			}
+		}
+		return profile;
+	}
+
+	// callerPath is the caller's signature, preceded by the path down to it
+	// for a nested call site
+	private void add(String callerPath,
+	                 InlineCallsite inlineCallsite,
+	                 MethodIndex methodIndex) {
+		Callsite callsite =
+			getCallsite(callerPath, inlineCallsite.getBytecodeOffset());
+		callsite.count = inlineCallsite.getCount();
+		callsite.osr = inlineCallsite.isOsr();
+		// The nested call sites of a callee seen with several receivers are
+		// only added once
+		HashSet<Integer> nestedCallees = new HashSet<>();
+		for (InlineTarget target : inlineCallsite.getTargets()) {
+			String receiverClassName = target.getReceiverClassName();
+			if (receiverClassName != null) {
+				receiverClassName = receiverClassName.replace('.', '/');
+			}
+			String calleeSignature = methodIndex.getSignature(target.getCalleeId());
+			Receiver receiver = callsite.getReceiver(calleeSignature,
+			                                         receiverClassName);
+			receiver.count += target.getCount();
+
+			HashMap<Integer, InlineCallsite> nestedCallsites =
+				inlineCallsite.getNestedCallsites(target.getCalleeId());
+			if (nestedCallsites == null || !nestedCallees.add(target.getCalleeId())) {
+				continue;
+			}
+			String nestedPath = getKey(callerPath, inlineCallsite.getBytecodeOffset())
+				+ InlineTargetsReader.PATH_SEPARATOR + calleeSignature;
+			for (InlineCallsite nestedCallsite : nestedCallsites.values()) {
+				add(nestedPath, nestedCallsite, methodIndex);
+			}
+		}
+	}
+}
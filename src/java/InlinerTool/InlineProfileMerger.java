@@ -0,0 +1,112 @@
+package InlinerTool;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Combines the profiles of several runs into one. Each input is a
+// LogCompilation log or an inline targets file with a weight, counts are
+// summed after scaling by the weight, and a call site is kept if the runs
+// it was inlined in carry at least minFraction of the total weight.
+public class InlineProfileMerger {
+
+	private double minFraction;
+	private int threads;
+
+	public InlineProfileMerger(double minFraction, int threads) {
+		this.minFraction = minFraction;
+		this.threads = threads;
+	}
+
+	// Inputs are read in parallel and merged in the order given, so the
+	// output does not depend on the number of threads
+	public InlineProfile merge(List<String> paths, List<Double> weights)
+		throws IOException {
+		List<InlineProfile> profiles = new ArrayList<>();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			List<ForkJoinTask<InlineProfile>> tasks = new ArrayList<>();
+			for (String path : paths) {
+				tasks.add(pool.submit(() -> read(path)));
+			}
+			for (ForkJoinTask<InlineProfile> task : tasks) {
+				profiles.add(task.get());
+			}
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+
+		InlineProfile merged = new InlineProfile();
+		HashMap<String, Double> callsiteWeights = new HashMap<>();
+		double totalWeight = 0.0;
+		for (int i = 0; i < profiles.size(); ++i) {
+			double weight = weights.get(i);
+			totalWeight += weight;
+			for (InlineProfile.Callsite callsite : profiles.get(i).getCallsites()) {
+				InlineProfile.Callsite mergedCallsite = merged.getCallsite(
+					callsite.getCallerSignature(), callsite.getBytecodeOffset());
+				mergedCallsite.setCount(mergedCallsite.getCount()
+					+ Math.round(weight * callsite.getCount()));
+				mergedCallsite.setOsr(mergedCallsite.isOsr() || callsite.isOsr());
+				for (InlineProfile.Receiver receiver : callsite.getReceivers()) {
+					InlineProfile.Receiver mergedReceiver =
+						mergedCallsite.getReceiver(receiver.getCalleeSignature(),
+						                           receiver.getReceiverClassName());
+					mergedReceiver.setCount(mergedReceiver.getCount()
+						+ Math.round(weight * receiver.getCount()));
+				}
+
+				String key = InlineProfile.getKey(callsite.getCallerSignature(),
+				                                  callsite.getBytecodeOffset());
+				callsiteWeights.merge(key, weight, Double::sum);
+			}
+		}
+
+		HashSet<String> rejected = new HashSet<>();
+		for (InlineProfile.Callsite callsite : merged.getCallsites()) {
+			String key = InlineProfile.getKey(callsite.getCallerSignature(),
+			                                  callsite.getBytecodeOffset());
+			if (callsiteWeights.get(key) < minFraction * totalWeight) {
+				rejected.add(key);
+			}
+		}
+		// The call sites nested in a rejected one go with it
+		merged.removeCallsites(rejected);
+		return merged;
+	}
+
+	// Logs are told apart from targets files by their first character
+	public static InlineProfile read(String path) throws IOException {
+		try (InputStream inputStream =
+		     new BufferedInputStream(new FileInputStream(path))) {
+			inputStream.mark(1);
+			int c = inputStream.read();
+			while (c != -1 && Character.isWhitespace(c)) {
+				inputStream.mark(1);
+				c = inputStream.read();
+			}
+			if (c == '<') {
+				inputStream.reset();
+				LogCompilationParser parser = new LogCompilationParser();
+				parser.parse(inputStream);
+				return parser.getProfile();
+			}
+		}
+		return InlineProfile.read(path);
+	}
+}
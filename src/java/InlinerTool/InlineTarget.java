@@ -0,0 +1,44 @@
+package InlinerTool;
+
+import soot.SootClass;
+
+public class InlineTarget {
+
+	// Id of the callee's HotSpot signature in the MethodIndex
+	private int calleeId;
+	// Number of times the profile saw this receiver at the call site, zero
+	// when the targets file does not record it
+	private long count;
+	// Receiver class the profile saw, as a Soot class name, or null when the
+	// targets file does not record it
+	private String receiverClassName;
+	// Class the guard for this target compares against, set once the Scene
+	// is loaded
+	private SootClass receiverClass;
+
+	public InlineTarget(int calleeId, long count, String receiverClassName) {
+		this.calleeId = calleeId;
+		this.count = count;
+		this.receiverClassName = receiverClassName;
+	}
+
+	public int getCalleeId() {
+		return calleeId;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public String getReceiverClassName() {
+		return receiverClassName;
+	}
+
+	public SootClass getReceiverClass() {
+		return receiverClass;
+	}
+
+	public void setReceiverClass(SootClass receiverClass) {
+		this.receiverClass = receiverClass;
+	}
+}
@@ -0,0 +1,185 @@
+package InlinerTool;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+
+// Reads an inline targets file. Version 1 files have no header and one line
+// per inlined receiver:
+//
+//   caller@bci callee [receiver-count]
+//
+// Version 2 files start with a "#inline-targets 2" header and also carry
+// the number of times the call site was invoked and the receiver class the
+// profile saw, in HotSpot's internal form (pkg/Cls):
+//
+//   caller@bci callee callsite-count receiver-count [receiver-class]
+//
+// Version 3 adds call sites HotSpot inlined within an inlined callee. Their
+// call site is the path down from the caller being compiled:
+//
+//   caller@bci->callee@bci->...->callee@bci callee ...
+//
+// Each callee on the path is also a target of the call site before it.
+//
+// Version 4 adds a flag after the receiver count, 1 when HotSpot compiled
+// the call site in an on-stack replacement (OSR) compilation and 0 otherwise:
+//
+//   caller@bci callee callsite-count receiver-count osr [receiver-class]
+//
+// Other lines starting with '#', and empty lines, are skipped.
+public class InlineTargetsReader {
+
+	public static final String HEADER = "#inline-targets";
+	public static final int VERSION = 4;
+	public static final String PATH_SEPARATOR = "->";
+
+	// Returns the call sites keyed by the caller's id in methodIndex, then by
+	// bytecode offset
+	public static HashMap<Integer, HashMap<Integer, InlineCallsite>> read(
+		String inlineTargetsPath, MethodIndex methodIndex) throws IOException {
+		HashMap<Integer, HashMap<Integer, InlineCallsite>> inlineTargets =
+			new HashMap<>();
+		int version = 1;
+		int lineNumber = 0;
+		try (BufferedReader bufferedReader =
+		     new BufferedReader(new FileReader(inlineTargetsPath))) {
+			String line = null;
+			while ((line = bufferedReader.readLine()) != null) {
+				++lineNumber;
+				line = line.trim();
+				if (lineNumber == 1 && line.startsWith(HEADER)) {
+					version = parseVersion(line, inlineTargetsPath);
+					continue;
+				}
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+
+				try {
+					readLine(line, version, inlineTargets, methodIndex);
+				} catch (RuntimeException e) {
+					throw new IOException(inlineTargetsPath + ":" + lineNumber
+						+ ": malformed inline target '" + line + "'", e);
+				}
+			}
+		}
+		return inlineTargets;
+	}
+
+	private static int parseVersion(String header, String inlineTargetsPath)
+		throws IOException {
+		String[] headerSplit = header.split("\\s+");
+		int version = 0;
+		if (headerSplit.length == 2) {
+			try {
+				version = Integer.parseInt(headerSplit[1]);
+			} catch (NumberFormatException e) {
+				version = 0;
+			}
+		}
+		if (version < 1 || version > VERSION) {
+			throw new IOException(inlineTargetsPath
+				+ ": unsupported inline targets version '" + header + "'");
+		}
+		return version;
+	}
+
+	private static void readLine(
+		String line,
+		int version,
+		HashMap<Integer, HashMap<Integer, InlineCallsite>> inlineTargets,
+		MethodIndex methodIndex) {
+		String[] lineSplit = line.split("\\s+");
+		String callsiteSignature = lineSplit[0];
+		String calleeHotSpotSignature = lineSplit[1];
+
+		long callsiteCount = 0;
+		long receiverCount = 0;
+		boolean osr = false;
+		String receiverClassName = null;
+		if (version == 1) {
+			if (lineSplit.length > 2) {
+				receiverCount = Long.parseLong(lineSplit[2]);
+			}
+		} else {
+			callsiteCount = Long.parseLong(lineSplit[2]);
+			receiverCount = Long.parseLong(lineSplit[3]);
+			int receiverClassIndex = 4;
+			if (version >= 4) {
+				osr = parseFlag(lineSplit[4]);
+				++receiverClassIndex;
+			}
+			if (lineSplit.length > receiverClassIndex) {
+				receiverClassName = lineSplit[receiverClassIndex].replace('/', '.');
+			}
+		}
+
+		String[] path = callsiteSignature.split(PATH_SEPARATOR);
+		int at = path[0].lastIndexOf('@');
+		if (at < 0) {
+			throw new IllegalArgumentException("no bytecode offset");
+		}
+		String callerHotSpotSignature = path[0].substring(0, at);
+		int bytecodeOffset = Integer.parseInt(path[0].substring(at + 1));
+
+		InlineCallsite callsite = getCallsite(
+			inlineTargets, methodIndex.intern(callerHotSpotSignature), bytecodeOffset);
+		for (int i = 1; i < path.length; ++i) {
+			at = path[i].lastIndexOf('@');
+			if (at < 0) {
+				throw new IllegalArgumentException("no bytecode offset");
+			}
+			callsite = getNestedCallsite(callsite,
+			                             methodIndex.intern(path[i].substring(0, at)),
+			                             Integer.parseInt(path[i].substring(at + 1)));
+		}
+		callsite.recordCount(callsiteCount);
+		callsite.recordOsr(osr);
+		callsite.addTarget(new InlineTarget(
+			methodIndex.intern(calleeHotSpotSignature),
+			receiverCount,
+			receiverClassName));
+	}
+
+	private static boolean parseFlag(String flag) {
+		if (flag.equals("1")) {
+			return true;
+		}
+		if (flag.equals("0")) {
+			return false;
+		}
+		throw new IllegalArgumentException("flag '" + flag + "' is not 0 or 1");
+	}
+
+	static InlineCallsite getCallsite(
+		HashMap<Integer, HashMap<Integer, InlineCallsite>> inlineTargets,
+		int callerId,
+		int bytecodeOffset) {
+		HashMap<Integer, InlineCallsite> methodCallsites =
+			inlineTargets.get(callerId);
+		if (methodCallsites == null) {
+			methodCallsites = new HashMap<>();
+			inlineTargets.put(callerId, methodCallsites);
+		}
+
+		InlineCallsite callsite = methodCallsites.get(bytecodeOffset);
+		if (callsite == null) {
+			callsite = new InlineCallsite(bytecodeOffset);
+			methodCallsites.put(bytecodeOffset, callsite);
+		}
+		return callsite;
+	}
+
+	// The call site at bytecodeOffset in calleeId inlined at callsite, which
+	// gets calleeId as a target if the profile did not name it there
+	static InlineCallsite getNestedCallsite(InlineCallsite callsite,
+	                                        int calleeId,
+	                                        int bytecodeOffset) {
+		if (callsite.getTarget(calleeId) == null) {
+			callsite.addTarget(new InlineTarget(calleeId, 0, null));
+		}
+		return callsite.getNestedCallsite(calleeId, bytecodeOffset);
+	}
+}
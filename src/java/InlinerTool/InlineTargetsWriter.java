@@ -0,0 +1,51 @@
+package InlinerTool;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileWriter;
+import java.io.IOException;
+
+// Writes the current version of the inline targets file read by
+// InlineTargetsReader, one line per receiver
+public class InlineTargetsWriter implements Closeable {
+
+	private BufferedWriter writer;
+
+	public InlineTargetsWriter(String inlineTargetsPath) throws IOException {
+		writer = new BufferedWriter(new FileWriter(inlineTargetsPath));
+		writer.write(InlineTargetsReader.HEADER + " " + InlineTargetsReader.VERSION);
+		writer.newLine();
+	}
+
+	// receiverClassName may be null, or a Soot or HotSpot class name
+	public void write(String callerHotSpotSignature,
+	                  int bytecodeOffset,
+	                  String calleeHotSpotSignature,
+	                  long callsiteCount,
+	                  long receiverCount,
+	                  boolean osr,
+	                  String receiverClassName) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append(callerHotSpotSignature);
+		sb.append('@');
+		sb.append(bytecodeOffset);
+		sb.append(' ');
+		sb.append(calleeHotSpotSignature);
+		sb.append(' ');
+		sb.append(callsiteCount);
+		sb.append(' ');
+		sb.append(receiverCount);
+		sb.append(osr ? " 1" : " 0");
+		if (receiverClassName != null) {
+			sb.append(' ');
+			sb.append(receiverClassName.replace('.', '/'));
+		}
+		writer.write(sb.toString());
+		writer.newLine();
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+}
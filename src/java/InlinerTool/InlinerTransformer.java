@@ -1,219 +1,1148 @@
 package InlinerTool;
 
-import soot.ArrayType;
 import soot.Body;
-import soot.BooleanType;
-import soot.ByteType;
-import soot.CharType;
-import soot.DoubleType;
-import soot.FloatType;
-import soot.IntType;
 import soot.Local;
-import soot.LongType;
-import soot.Modifier;
-import soot.PackManager;
 import soot.PatchingChain;
-import soot.PrimType;
 import soot.PhaseOptions;
 import soot.RefType;
 import soot.Scene;
 import soot.SceneTransformer;
-import soot.ShortType;
-import soot.SootField;
-import soot.SootFieldRef;
 import soot.SootMethod;
-import soot.SootMethodRef;
 import soot.SootClass;
-import soot.Transform;
+import soot.SourceLocator;
+import soot.Trap;
 import soot.Type;
 import soot.Unit;
 import soot.Value;
 import soot.jimple.AssignStmt;
-import soot.jimple.FieldRef;
+import soot.jimple.CastExpr;
+import soot.jimple.ClassConstant;
 import soot.jimple.GotoStmt;
 import soot.jimple.IfStmt;
 import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.InterfaceInvokeExpr;
 import soot.jimple.InvokeExpr;
-import soot.jimple.InvokeStmt;
 import soot.jimple.Jimple;
 import soot.jimple.NeExpr;
 import soot.jimple.NopStmt;
-import soot.jimple.StaticInvokeExpr;
 import soot.jimple.Stmt;
-import soot.jimple.StringConstant;
-import soot.jimple.ThrowStmt;
 import soot.jimple.VirtualInvokeExpr;
+import soot.jimple.toolkits.annotation.logic.Loop;
+import soot.jimple.toolkits.annotation.logic.LoopFinder;
 import soot.jimple.toolkits.invoke.InlinerSafetyManager;
 import soot.jimple.toolkits.invoke.SiteInliner;
 import soot.options.Options;
 import soot.tagkit.Tag;
 import soot.tagkit.BytecodeOffsetTag;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.lang.RuntimeException;
 import java.lang.StringBuilder;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class InlinerTransformer extends SceneTransformer {
 
-	private HashMap<String, HashMap<Integer, List<String>>> inlineTargets = new HashMap<>();
-	private HashMap<String, SootMethod> methodMap = new HashMap<>();
+	// Keyed by the caller's id in methodIndex
+	private HashMap<Integer, HashMap<Integer, InlineCallsite>> inlineTargets;
+	private MethodIndex methodIndex;
+	// Set when the inline targets are a binary plan, whose call sites are
+	// only read once the callers are resolved
+	private InlinePlan plan;
+
+	// Guarded inlining of call sites with more than one receiver
+	private boolean polymorphic = false;
+	private int maxReceivers = 3;
+	private float minShare = 0.0f;
+
+	// Callers are inlined on this many threads, 1 keeps the sequential walk
+	private int threads = 1;
+	// Serializes the parts of Soot that change or lazily build shared state:
+	// InlinerSafetyManager makes members public and SiteInliner adds monitor
+	// code for synchronized callees through SynchronizerManager
+	private final Object sharedStateLock = new Object();
+	private SootMethod getClassMethod;
+	private CalleeSafetyCache safetyCache = new CalleeSafetyCache();
+	private InlineBudget budget;
+	// Call sites within inlined callees are followed this many levels deep,
+	// 9 is HotSpot's MaxInlineLevel
+	private int maxDepth = 9;
+	// The budget orders call sites in loops and OSR compilations as if they
+	// were this many times hotter
+	private int loopPriority = 4;
+	// The statements inside loops of each body the plan looked at
+	private HashMap<SootMethod, HashSet<Unit>> loopStatements = new HashMap<>();
+	// Nested call sites that fit in the budget, only read while inlining
+	private HashSet<InlineCallsite> admittedNestedCallsites = new HashSet<>();
+	// Clean up the bodies that were inlined into
+	private boolean cleanup = false;
+	private Set<SootMethod> inlinedCallers = ConcurrentHashMap.newKeySet();
+	// Call sites class hierarchy analysis binds to a single callee, which is
+	// inlined without a guard. Only read while inlining.
+	private HashMap<InlineCallsite, InlineTarget> monomorphicCallsites =
+		new HashMap<>();
+	// The receivers of each guarded call site in polymorphic mode that the
+	// budget was charged for. Only these are inlined, and only read while
+	// inlining.
+	private HashMap<InlineCallsite, List<InlineTarget>> plannedReceivers =
+		new HashMap<>();
+	// Route the protected members a callee uses through accessors, so it
+	// can be inlined into other packages
+	private boolean accessors = false;
+	// Remove the methods nothing refers to once inlining is done
+	private boolean prune = false;
+	// Reuse the classes an earlier run wrote when their inputs are the same
+	private ClassCache classCache;
+	private long maxTotalGrowth = 0;
+	private List<String> reusedClasses = new ArrayList<>();
+	// What became of each call site and why, null unless asked for
+	private DecisionReport report;
+	// Counts the branches taken at each guard, null unless asked for
+	private GuardInstrumentation guardInstrumentation;
+	// Moves cold paths out of the callers inlined into, null unless there
+	// is a branch profile
+	private BranchProfile branchProfile;
+	private ColdPathOutliner outliner;
+
+	private static class CallerCallsite {
+		SootMethod caller;
+		// The method whose body has the call site, the caller or a callee
+		// inlined into it
+		SootMethod owner;
+		InlineCallsite callsite;
+		// 1 for a call site in the caller's own body
+		int depth;
+		// The call site whose callee owner is, null at depth 1
+		InlineCallsite parent;
+		// The caller's signature, preceded by the path down to owner for a
+		// nested call site, as in the inline targets file
+		String path;
+		// Inside a loop of owner, or of a method the call site is nested in
+		boolean loop;
+		// Compiled in an OSR compilation, or nested in a call site that was
+		boolean osr;
+		// The count, scaled by loopPriority for a call site in a loop or an
+		// OSR compilation
+		long priority;
+		// Keeps the order of call sites with equal priorities
+		int sequence;
+		// Set once admitted
+		List<SootMethod> callees;
+	}
 
 	public InlinerTransformer(String inlineTargetsPath) throws IOException {
-		FileReader fileReader = new FileReader(inlineTargetsPath);
-		BufferedReader bufferedReader = new BufferedReader(fileReader);
-		String line = null;
-		while ((line = bufferedReader.readLine()) != null) {
-			String[] lineSplit = line.split(" ");
-			String callsiteSignature = lineSplit[0];
-			String calleeHotSpotSignature = lineSplit[1];
-
-			String[] callsiteSignatureSplit =
-				callsiteSignature.split("@");
-			String callerHotSpotSignature =
-				callsiteSignatureSplit[0];
-			Integer callsiteBytecodeOffset =
-				Integer.valueOf(callsiteSignatureSplit[1]);
-
-			if (!inlineTargets.containsKey(callerHotSpotSignature)) {
-				inlineTargets.put(callerHotSpotSignature, new HashMap<>());
-			}
-
-			HashMap<Integer, List<String>> methodCallsites =
-				inlineTargets.get(callerHotSpotSignature);
-			List<String> callsiteList =
-				methodCallsites.get(callsiteBytecodeOffset);
-
-			if (callsiteList == null) {
-				callsiteList = new ArrayList<String>();
-				callsiteList.add(calleeHotSpotSignature);
-				methodCallsites.put(callsiteBytecodeOffset, callsiteList);
-			} else {
-				callsiteList.add(calleeHotSpotSignature);
+		if (InlinePlan.isPlan(inlineTargetsPath)) {
+			plan = InlinePlan.map(inlineTargetsPath);
+			methodIndex = new MethodIndex(plan);
+		} else {
+			methodIndex = new MethodIndex();
+			inlineTargets = InlineTargetsReader.read(inlineTargetsPath, methodIndex);
+		}
+	}
+
+	// The classes that declare a caller or callee of the inline targets
+	public Set<String> getTargetClassNames() {
+		return methodIndex.getClassNames();
+	}
+
+	public void setClassCache(ClassCache classCache) {
+		this.classCache = classCache;
+	}
+
+	public void setReport(DecisionReport report) {
+		this.report = report;
+	}
+
+	public void setGuardInstrumentation(GuardInstrumentation guardInstrumentation) {
+		this.guardInstrumentation = guardInstrumentation;
+	}
+
+	public void setBranchProfile(BranchProfile branchProfile) {
+		this.branchProfile = branchProfile;
+	}
+
+	// Must run after Soot has written its output
+	public void updateClassCache() throws IOException {
+		if (classCache != null) {
+			classCache.update(SourceLocator.v().getOutputDir(), reusedClasses);
+		}
+	}
+
+	@Override
+	public void internalTransform(String phaseName, Map rawOptions) {
+		// Soot passes its phase options as strings
+		@SuppressWarnings("unchecked")
+		Map<String, String> options = rawOptions;
+		polymorphic = PhaseOptions.getBoolean(options, "polymorphic");
+		maxReceivers = PhaseOptions.getInt(options, "max-receivers");
+		minShare = PhaseOptions.getFloat(options, "min-share");
+		threads = PhaseOptions.getInt(options, "threads");
+		maxDepth = PhaseOptions.getInt(options, "max-depth");
+		loopPriority = Math.max(1, PhaseOptions.getInt(options, "loop-priority"));
+		cleanup = PhaseOptions.getBoolean(options, "cleanup");
+		accessors = PhaseOptions.getBoolean(options, "accessors");
+		prune = PhaseOptions.getBoolean(options, "prune");
+		maxTotalGrowth = PhaseOptions.getInt(options, "max-total-growth");
+		budget = new InlineBudget(
+			PhaseOptions.getInt(options, "max-caller-size"),
+			PhaseOptions.getInt(options, "max-callee-size"),
+			maxTotalGrowth);
+		if (branchProfile != null) {
+			outliner = new ColdPathOutliner(
+				branchProfile, PhaseOptions.getInt(options, "outline-min-size"));
+		}
+
+		long transformStart = System.nanoTime();
+		long phaseStart = transformStart;
+		methodIndex.resolve();
+		if (plan != null) {
+			try {
+				inlineTargets = plan.read(methodIndex, true);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		resolveReceiverClasses();
+
+		// getClass is declared once, on Object, whatever the static type of
+		// the receiver is
+		getClassMethod = getSootMethod("java.lang.Object",
+									   "getClass",
+									   "java.lang.Class",
+									   null);
+
+		List<SootMethod> callers = new ArrayList<>();
+		HashMap<SootMethod, HashMap<Integer, InlineCallsite>> callerTargets =
+			new HashMap<>();
+		for (Map.Entry<Integer, HashMap<Integer, InlineCallsite>> entry
+		     : inlineTargets.entrySet()) {
+			HashMap<Integer, InlineCallsite> bytecodeOffsetCalleeMap =
+				entry.getValue();
+
+			SootMethod sootCaller = methodIndex.getMethod(entry.getKey());
+			if (sootCaller == null) {
+				if (report != null) {
+					for (InlineCallsite callsite : bytecodeOffsetCalleeMap.values()) {
+						DecisionReport.Record record =
+							recordCallsite(callsite, null, null, 1, null);
+						record.caller = methodIndex.getSignature(entry.getKey());
+						record.method = record.caller;
+						report.reject(callsite, "caller-not-found", null);
+					}
+				}
+				continue;
+			}
+
+			callers.add(sootCaller);
+			callerTargets.put(sootCaller, bytecodeOffsetCalleeMap);
+		}
+		HashMap<SootMethod, Integer> instructionsBefore = new HashMap<>();
+		if (report != null) {
+			for (SootMethod sootCaller : callers) {
+				instructionsBefore.put(sootCaller, BodyCleaner.countInstructions(
+					sootCaller.retrieveActiveBody()));
+			}
+		}
+		phaseStart = addPhase("resolve", phaseStart);
+
+		List<CallerCallsite> admittedCallsites = new ArrayList<>();
+		List<SootMethod> allCallers = callers;
+		callerTargets = planBudget(callers, callerTargets, admittedCallsites);
+		phaseStart = addPhase("plan", phaseStart);
+		if (accessors) {
+			generateAccessors(admittedCallsites);
+			phaseStart = addPhase("accessors", phaseStart);
+		}
+		HashSet<SootClass> transformedClasses = null;
+		if (classCache != null) {
+			try {
+				transformedClasses = planClassCache(admittedCallsites);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			phaseStart = addPhase("class-cache", phaseStart);
+		}
+		List<SootMethod> admittedCallers = new ArrayList<>();
+		for (SootMethod sootCaller : callers) {
+			if (callerTargets.containsKey(sootCaller)
+			    && (transformedClasses == null
+			        || transformedClasses.contains(sootCaller.getDeclaringClass()))) {
+				admittedCallers.add(sootCaller);
+			}
+		}
+		callers = admittedCallers;
+		if (report != null && transformedClasses != null) {
+			for (CallerCallsite callsite : admittedCallsites) {
+				if (!transformedClasses.contains(callsite.caller.getDeclaringClass())) {
+					report.reuse(callsite.callsite);
+				}
+			}
+		}
+
+		// Inlining reads the callee sizes, so they are all estimated first,
+		// from bodies nothing has been inlined into yet. Workers then never
+		// add to the budget, and every thread count sees the same sizes.
+		for (SootMethod sootCaller : callers) {
+			for (SootMethod sootCallee
+			     : getCallees(callerTargets.get(sootCaller))) {
+				budget.getSize(sootCallee);
+			}
+		}
+		if (threads > 1) {
+			inlineInParallel(callers, callerTargets);
+		} else {
+			for (SootMethod sootCaller : callers) {
+				handleInline(sootCaller, callerTargets.get(sootCaller));
+			}
+		}
+		phaseStart = addPhase("inline", phaseStart);
+
+		if (cleanup) {
+			cleanUp(callers);
+			phaseStart = addPhase("cleanup", phaseStart);
+		}
+		if (outliner != null) {
+			outlineColdPaths(callers);
+			phaseStart = addPhase("outline", phaseStart);
+		}
+		if (prune) {
+			pruneMethods();
+			phaseStart = addPhase("prune", phaseStart);
+		}
+
+		// Soot only runs the remaining packs on, and writes, application
+		// classes
+		for (String className : reusedClasses) {
+			Scene.v().getSootClass(className).setLibraryClass();
+		}
+
+		long hits = safetyCache.getHits();
+		long lookups = hits + safetyCache.getMisses();
+		System.out.println(String.format(
+			"InlinerTool: safety cache %d hits, %d lookups (%.1f%%)",
+			hits, lookups, lookups == 0 ? 0.0 : 100.0 * hits / lookups));
+
+		if (report != null) {
+			for (SootMethod sootCaller : allCallers) {
+				report.setInstructions(sootCaller,
+				                       instructionsBefore.get(sootCaller),
+				                       BodyCleaner.countInstructions(
+				                           sootCaller.retrieveActiveBody()));
 			}
+			report.setCounter("inlinedCallers", inlinedCallers.size());
+			report.setCounter("estimatedGrowth", budget.getTotalGrowth());
+			report.setCounter("safetyCacheHits", hits);
+			report.setCounter("safetyCacheLookups", lookups);
+			addPhase("transform", transformStart);
 		}
 	}
 
-	// https://docs.oracle.com/javase/specs/jvms/se8/html/jvms-4.html#jvms-4.3.2
-	private void buildFieldDescriptor(StringBuilder sb, Type type) {
-		if (type instanceof RefType) {
-			RefType refType = (RefType) type;
-			String sootClassName = refType.getClassName();
-			sb.append('L');
-			sb.append(sootClassName.replace('.', '/'));
-			sb.append(';');
+	// Returns the start of the next phase
+	private long addPhase(String name, long phaseStart) {
+		if (report != null) {
+			report.addPhase(name, phaseStart);
 		}
-		else if (type instanceof ArrayType) {
-			ArrayType arrayType = (ArrayType) type;
-			sb.append('[');
-			buildFieldDescriptor(sb, arrayType.baseType);
+		return System.nanoTime();
+	}
+
+	// Adds callsite to the report with its profile and the sizes of its
+	// callees; sootCaller and owner are null when the caller is not found
+	private DecisionReport.Record recordCallsite(InlineCallsite callsite,
+	                                             SootMethod sootCaller,
+	                                             SootMethod owner,
+	                                             int depth,
+	                                             InlineCallsite parent) {
+		DecisionReport.Record record = new DecisionReport.Record();
+		record.sootCaller = sootCaller;
+		if (sootCaller != null) {
+			record.caller = MethodIndex.getHotSpotSignature(sootCaller);
+			record.method = MethodIndex.getHotSpotSignature(owner);
+			record.callerSize = budget.getSize(sootCaller);
+			record.plannedCallerSize = record.callerSize;
 		}
-		else if (type instanceof BooleanType) {
-			sb.append('Z');
+		record.bytecodeOffset = callsite.getBytecodeOffset();
+		record.depth = depth;
+		record.count = callsite.getCount();
+		for (InlineTarget target : callsite.getTargets()) {
+			record.callees.add(methodIndex.getSignature(target.getCalleeId()));
+			SootMethod sootCallee = methodIndex.getMethod(target.getCalleeId());
+			record.calleeSizes.add(sootCallee != null && sootCallee.isConcrete()
+			                       ? budget.getSize(sootCallee) : -1);
 		}
-		else if (type instanceof ByteType) {
-			sb.append('B');
+		if (parent != null) {
+			record.parent = report.get(parent);
 		}
-		else if (type instanceof CharType) {
-			sb.append('C');
+		return report.add(callsite, record);
+	}
+
+	private void reject(InlineCallsite callsite, String reason, String detail) {
+		if (report != null) {
+			report.reject(callsite, reason, detail);
 		}
-		else if (type instanceof DoubleType) {
-			sb.append('D');
+	}
+
+	private void reject(InlineCallsite callsite, String reason) {
+		reject(callsite, reason, null);
+	}
+
+	// Rejects callsite for reason and the other call sites of its caller,
+	// which is skipped as a whole
+	private void rejectCaller(HashMap<Integer, InlineCallsite> bytecodeOffsetCalleeMap,
+	                          InlineCallsite callsite,
+	                          String reason,
+	                          String detail) {
+		reject(callsite, reason, detail);
+		for (InlineCallsite other : bytecodeOffsetCalleeMap.values()) {
+			reject(other, "caller-skipped",
+			       "call site @" + callsite.getBytecodeOffset() + ": " + reason);
 		}
-		else if (type instanceof FloatType) {
-			sb.append('F');
+	}
+
+	// Runs after all inlining, as a caller may be inlined somewhere else,
+	// in caller order so the report does not depend on the number of threads
+	private void cleanUp(List<SootMethod> callers) {
+		BodyCleaner cleaner = new BodyCleaner();
+		long totalRemoved = 0;
+		int cleaned = 0;
+		for (SootMethod sootCaller : callers) {
+			if (!inlinedCallers.contains(sootCaller)) {
+				continue;
+			}
+			int removed = cleaner.clean(sootCaller.retrieveActiveBody());
+			System.out.println("InlinerTool: cleanup "
+				+ MethodIndex.getHotSpotSignature(sootCaller)
+				+ " removed " + removed + " bytecodes");
+			totalRemoved += removed;
+			++cleaned;
 		}
-		else if (type instanceof IntType) {
-			sb.append('I');
+		System.out.println("InlinerTool: cleanup removed " + totalRemoved
+			+ " bytecodes from " + cleaned + " methods");
+	}
+
+	// Runs after all inlining and cleanup, as the cold paths of a caller
+	// are only final then, and in caller order so the methods it adds are
+	// named the same whatever the number of threads
+	private void outlineColdPaths(List<SootMethod> callers) {
+		int totalOutlined = 0;
+		int outlinedCallers = 0;
+		for (SootMethod sootCaller : callers) {
+			if (!inlinedCallers.contains(sootCaller)) {
+				continue;
+			}
+			int outlined = outliner.outline(sootCaller);
+			if (outlined > 0) {
+				System.out.println("InlinerTool: outlined " + outlined
+					+ " cold paths of " + MethodIndex.getHotSpotSignature(sootCaller));
+				totalOutlined += outlined;
+				++outlinedCallers;
+			}
 		}
-		else if (type instanceof LongType) {
-			sb.append('J');
+		System.out.println("InlinerTool: outlined " + totalOutlined
+			+ " cold paths, " + outliner.getOutlinedStatements()
+			+ " statements, from " + outlinedCallers + " methods");
+		if (report != null) {
+			report.setCounter("outlinedPaths", totalOutlined);
+			report.setCounter("outlinedStatements", outliner.getOutlinedStatements());
 		}
-		else if (type instanceof ShortType) {
-			sb.append('S');
+	}
+
+	// Runs last, as every other phase can add or drop references
+	private void pruneMethods() {
+		MethodPruner pruner = new MethodPruner(budget);
+		int pruned = pruner.prune();
+		long totalBytes = 0;
+		for (Map.Entry<String, Long> entry : pruner.getClassBytes().entrySet()) {
+			List<String> methods = pruner.getClassMethods().get(entry.getKey());
+			System.out.println("InlinerTool: pruned " + methods.size()
+				+ " methods, an estimated " + entry.getValue() + " bytes from "
+				+ entry.getKey());
+			if (report != null) {
+				report.addPruned(entry.getKey(), methods, entry.getValue());
+			}
+			totalBytes += entry.getValue();
 		}
-		else {
-			throw new RuntimeException(
-				"Unhandled Type: " + type.getClass().getName());
+		System.out.println("InlinerTool: pruned " + pruned
+			+ " methods, an estimated " + totalBytes + " bytes from "
+			+ pruner.getClassBytes().size() + " classes");
+		if (report != null) {
+			report.setCounter("prunedMethods", pruned);
+			report.setCounter("prunedBytes", totalBytes);
 		}
 	}
 
-	private String getHotSpotSignature(SootMethod sootMethod) {
-		SootClass sootClass = sootMethod.getDeclaringClass();
-		StringBuilder sb = new StringBuilder();
-		sb.append(sootClass.getName().replace('.', '/'));
-		sb.append('.');
-		sb.append(sootMethod.getName());
-		sb.append('(');
-		boolean firstParameter = true;
-		for (Type parameterType : sootMethod.getParameterTypes()) {
-			if (firstParameter) { firstParameter = false; }
-			else                { sb.append(','); }
-
-			if (parameterType instanceof RefType) {
-				RefType refType = (RefType) parameterType;
-				String sootClassName = refType.getClassName();
-				sb.append(sootClassName.replace('.', '/'));
-			}
-			else if (parameterType instanceof PrimType) {
-				PrimType primType = (PrimType) parameterType;
-				sb.append(primType.toString());
-			}
-			else if (parameterType instanceof ArrayType) {
-				buildFieldDescriptor(sb, parameterType);
-			}
-			else {
-				throw new RuntimeException(
-					"Unhandled Parameter Type: "
-					+ parameterType.getClass().getName());
-			}
-		}
-		sb.append(')');
-		return sb.toString();
+	// Admits call sites into the size budget, hottest first, and returns the
+	// targets that fit. A nested call site competes once the call site that
+	// inlines its callee is admitted, and grows the caller it ends up in.
+	// This runs before any inlining, so the same sites are chosen however
+	// many threads inline them.
+	private HashMap<SootMethod, HashMap<Integer, InlineCallsite>> planBudget(
+		List<SootMethod> callers,
+		HashMap<SootMethod, HashMap<Integer, InlineCallsite>> callerTargets,
+		List<CallerCallsite> admittedCallsites) {
+		PriorityQueue<CallerCallsite> callsites = new PriorityQueue<>(
+			Comparator.comparingLong((CallerCallsite c) -> c.priority)
+				.reversed()
+				.thenComparingInt(c -> c.sequence));
+		int sequence = 0;
+		for (SootMethod sootCaller : callers) {
+			for (InlineCallsite inlineCallsite
+			     : callerTargets.get(sootCaller).values()) {
+				CallerCallsite callsite = new CallerCallsite();
+				callsite.caller = sootCaller;
+				callsite.owner = sootCaller;
+				callsite.callsite = inlineCallsite;
+				callsite.depth = 1;
+				callsite.path = MethodIndex.getHotSpotSignature(sootCaller);
+				callsite.sequence = sequence++;
+				prioritize(callsite, false, false);
+				callsites.add(callsite);
+			}
+		}
+
+		HashMap<SootMethod, HashMap<Integer, InlineCallsite>> admitted =
+			new HashMap<>();
+		DispatchAnalysis dispatchAnalysis = new DispatchAnalysis();
+		int considered = 0;
+		int rejected = 0;
+		while (!callsites.isEmpty()) {
+			CallerCallsite callsite = callsites.poll();
+			++considered;
+			DecisionReport.Record record = null;
+			if (report != null) {
+				record = recordCallsite(callsite.callsite, callsite.caller,
+				                        callsite.owner, callsite.depth,
+				                        callsite.parent);
+				record.loop = callsite.loop;
+				record.osr = callsite.osr;
+			}
+			List<InlineTarget> targets = callsite.callsite.getTargets();
+			InlineTarget monomorphicTarget =
+				classifyCallsite(callsite, dispatchAnalysis);
+			// A single receiver is guarded unless the hierarchy proves it is
+			// the only one
+			boolean guarded = monomorphicTarget == null;
+			// Inlined by handlePolymorphicInline, otherwise every receiver
+			// of a guarded call site is inlined
+			boolean selected = guarded && polymorphic;
+			List<InlineTarget> plannedTargets = new ArrayList<>();
+			if (monomorphicTarget != null) {
+				plannedTargets.add(monomorphicTarget);
+			} else if (selected) {
+				plannedTargets = selectReceivers(callsite.callsite,
+												 callsite.caller);
+			} else if (targets.size() > 2) {
+				// Not inlined, handleInline skips the whole caller
+				reject(callsite.callsite, "too-many-receivers",
+				       targets.size() + " receivers, polymorphic inlining is off");
+			} else {
+				for (InlineTarget target : targets) {
+					if (methodIndex.getMethod(target.getCalleeId()) != null) {
+						plannedTargets.add(target);
+					}
+				}
+			}
+
+			List<SootMethod> callees = new ArrayList<>();
+			for (InlineTarget target : plannedTargets) {
+				callees.add(methodIndex.getMethod(target.getCalleeId()));
+			}
+			String reason = budget.admit(callsite.caller, callees, guarded);
+			if (reason != null) {
+				System.out.println("InlinerTool: over budget "
+					+ MethodIndex.getHotSpotSignature(callsite.caller)
+					+ "@" + callsite.callsite.getBytecodeOffset()
+					+ (callsite.depth > 1 ? " (depth " + callsite.depth + ")" : "")
+					+ ": " + reason);
+				reject(callsite.callsite, "over-budget", reason);
+				++rejected;
+				continue;
+			}
+
+			if (record != null) {
+				record.plannedCallerSize = budget.getSize(callsite.caller);
+			}
+			if (guardInstrumentation != null && guarded && !callees.isEmpty()) {
+				guardInstrumentation.reserve(callsite.callsite, callsite.path,
+				                             methodIndex);
+			}
+			if (selected) {
+				plannedReceivers.put(callsite.callsite, plannedTargets);
+			}
+			callsite.callees = callees;
+			admittedCallsites.add(callsite);
+			if (callsite.depth > 1) {
+				admittedNestedCallsites.add(callsite.callsite);
+			} else {
+				HashMap<Integer, InlineCallsite> bytecodeOffsetCalleeMap =
+					admitted.get(callsite.caller);
+				if (bytecodeOffsetCalleeMap == null) {
+					bytecodeOffsetCalleeMap = new HashMap<>();
+					admitted.put(callsite.caller, bytecodeOffsetCalleeMap);
+				}
+				bytecodeOffsetCalleeMap.put(callsite.callsite.getBytecodeOffset(),
+											callsite.callsite);
+			}
+
+			HashSet<Integer> plannedCallees = new HashSet<>();
+			for (InlineTarget target : plannedTargets) {
+				HashMap<Integer, InlineCallsite> nestedCallsites =
+					callsite.callsite.getNestedCallsites(target.getCalleeId());
+				if (nestedCallsites == null
+				    || !plannedCallees.add(target.getCalleeId())) {
+					continue;
+				}
+				for (InlineCallsite nestedCallsite : nestedCallsites.values()) {
+					CallerCallsite nested = new CallerCallsite();
+					nested.caller = callsite.caller;
+					nested.owner = methodIndex.getMethod(target.getCalleeId());
+					nested.callsite = nestedCallsite;
+					nested.depth = callsite.depth + 1;
+					nested.parent = callsite.callsite;
+					nested.path = InlineProfile.getKey(callsite.path,
+						callsite.callsite.getBytecodeOffset())
+						+ InlineTargetsReader.PATH_SEPARATOR
+						+ methodIndex.getSignature(target.getCalleeId());
+					nested.sequence = sequence++;
+					prioritize(nested, callsite.loop, callsite.osr);
+					if (nested.depth > maxDepth) {
+						// Only reported
+						if (report != null) {
+							recordCallsite(nestedCallsite, nested.caller, nested.owner,
+							               nested.depth, nested.parent);
+							reject(nestedCallsite, "max-depth",
+							       "depth " + nested.depth + ", limit " + maxDepth);
+						}
+						continue;
+					}
+					callsites.add(nested);
+				}
+			}
+		}
+
+		System.out.println("InlinerTool: budget admitted "
+			+ (considered - rejected) + " of " + considered
+			+ " call sites, estimated growth "
+			+ budget.getTotalGrowth() + " bytes");
+		return admitted;
 	}
 
-	@Override
-	public void internalTransform(String phaseName, Map options) {
-		for (SootClass sootClass : Scene.v().getClasses()) {
-			try{
+	// A call in a loop runs once per iteration, so inlining it saves the
+	// most. A nested call site is in a loop when the call site it is nested
+	// in is.
+	private void prioritize(CallerCallsite callsite,
+	                        boolean parentLoop,
+	                        boolean parentOsr) {
+		callsite.loop = parentLoop
+			|| isInLoop(callsite.owner, callsite.callsite.getBytecodeOffset());
+		callsite.osr = parentOsr || callsite.callsite.isOsr();
+		long count = callsite.callsite.getCount();
+		if (!callsite.loop && !callsite.osr) {
+			callsite.priority = count;
+		} else if (count > Long.MAX_VALUE / loopPriority) {
+			callsite.priority = Long.MAX_VALUE;
+		} else {
+			callsite.priority = count * loopPriority;
+		}
+	}
+
+	// Loops are found with Soot's LoopFinder, once per body, on the bodies
+	// before anything is inlined into them
+	private boolean isInLoop(SootMethod sootMethod, int bytecodeOffset) {
+		Stmt stmt = findInvoke(sootMethod, bytecodeOffset);
+		if (stmt == null) {
+			return false;
+		}
+		HashSet<Unit> statements = loopStatements.get(sootMethod);
+		if (statements == null) {
+			statements = new HashSet<>();
+			// A LoopFinder keeps the loops of the first body it is given
+			for (Loop loop : new LoopFinder().getLoops(sootMethod.retrieveActiveBody())) {
+				statements.addAll(loop.getLoopStatements());
+			}
+			loopStatements.put(sootMethod, statements);
+		}
+		return statements.contains(stmt);
+	}
+
+	// Works out which classes the cache can supply. The key of a class covers
+	// its class file, the call sites planned in it and the accessors added
+	// to it, for the class and for every class it inlines from, directly or
+	// through another callee, so a class is written again when any of those
+	// changed. Returns the classes whose callers still have to be inlined:
+	// the ones written again and the ones they inline from.
+	private HashSet<SootClass> planClassCache(List<CallerCallsite> admittedCallsites)
+		throws IOException {
+		if (Options.v().output_format() != Options.output_format_class
+		    || Options.v().output_jar()) {
+			System.out.println("InlinerTool: the class cache needs class file"
+				+ " output to a directory, not used");
+			classCache = null;
+			return null;
+		}
+		// Slots are numbered over the whole program
+		if (guardInstrumentation != null) {
+			System.out.println("InlinerTool: the class cache is not used with"
+				+ " guard instrumentation");
+			classCache = null;
+			return null;
+		}
+		// The keys do not cover the branch profile, or which methods other
+		// classes still refer to
+		if (outliner != null || prune) {
+			System.out.println("InlinerTool: the class cache is not used with"
+				+ " cold path outlining or pruning");
+			classCache = null;
+			return null;
+		}
+
+		HashMap<SootClass, StringBuilder> plans = new HashMap<>();
+		HashMap<SootClass, HashSet<SootClass>> dependencies = new HashMap<>();
+		for (CallerCallsite callsite : admittedCallsites) {
+			SootClass callerClass = callsite.caller.getDeclaringClass();
+			StringBuilder plan = plans.get(callerClass);
+			if (plan == null) {
+				plan = new StringBuilder();
+				plans.put(callerClass, plan);
+				dependencies.put(callerClass, new HashSet<>());
+			}
+			describeCallsite(callsite, plan);
+			for (SootMethod sootCallee : callsite.callees) {
+				dependencies.get(callerClass).add(sootCallee.getDeclaringClass());
+			}
+		}
+
+		String configuration = classCache.getConfiguration();
+		// With a total growth limit, every call site can change what is
+		// admitted anywhere else
+		if (maxTotalGrowth != 0) {
+			List<String> allPlans = new ArrayList<>();
+			for (Map.Entry<SootClass, StringBuilder> entry : plans.entrySet()) {
+				allPlans.add(entry.getKey().getName() + "\n" + entry.getValue());
+			}
+			allPlans.sort(null);
+			configuration += "\n" + String.join("\n", allPlans);
+		}
+
+		HashMap<SootClass, String> inputs = new HashMap<>();
+		HashSet<SootClass> written = new HashSet<>();
+		List<SootClass> applicationClasses =
+			new ArrayList<>(Scene.v().getApplicationClasses());
+		for (SootClass sootClass : applicationClasses) {
+			TreeMap<String, String> closureInputs = new TreeMap<>();
+			for (SootClass dependency : getDependencyClosure(sootClass, dependencies)) {
+				String input = getClassInput(dependency, plans, inputs);
+				if (input == null) {
+					closureInputs = null;
+					break;
+				}
+				closureInputs.put(dependency.getName(), input);
+			}
+			if (closureInputs == null) {
+				// Not on the class path, so never cached
+				written.add(sootClass);
+				continue;
+			}
+
+			String key = ClassCache.hash(configuration + "\n" + closureInputs);
+			if (classCache.isCurrent(sootClass.getName(), key)) {
+				reusedClasses.add(sootClass.getName());
+			} else {
+				classCache.expect(sootClass.getName(), key);
+				written.add(sootClass);
+			}
+		}
+
+		HashSet<SootClass> transformedClasses = new HashSet<>();
+		for (SootClass sootClass : written) {
+			transformedClasses.addAll(getDependencyClosure(sootClass, dependencies));
+		}
+		System.out.println("InlinerTool: class cache reused "
+			+ reusedClasses.size() + " of " + applicationClasses.size()
+			+ " classes");
+		return transformedClasses;
+	}
+
+	// The class and every class it inlines from, directly or not
+	private HashSet<SootClass> getDependencyClosure(
+		SootClass sootClass,
+		HashMap<SootClass, HashSet<SootClass>> dependencies) {
+		HashSet<SootClass> closure = new HashSet<>();
+		List<SootClass> worklist = new ArrayList<>();
+		closure.add(sootClass);
+		worklist.add(sootClass);
+		while (!worklist.isEmpty()) {
+			HashSet<SootClass> classDependencies =
+				dependencies.get(worklist.remove(worklist.size() - 1));
+			if (classDependencies == null) {
+				continue;
+			}
+			for (SootClass dependency : classDependencies) {
+				if (closure.add(dependency)) {
+					worklist.add(dependency);
+				}
+			}
+		}
+		return closure;
+	}
+
+	// What a class contributes to the keys of the classes that depend on it,
+	// or null if its class file is not on the class path
+	private String getClassInput(SootClass sootClass,
+								 HashMap<SootClass, StringBuilder> plans,
+								 HashMap<SootClass, String> inputs)
+		throws IOException {
+		if (inputs.containsKey(sootClass)) {
+			return inputs.get(sootClass);
+		}
+		String input = ClassCache.hashClassFile(sootClass.getName());
+		if (input != null) {
+			StringBuilder sb = new StringBuilder(input);
+			StringBuilder plan = plans.get(sootClass);
+			if (plan != null) {
+				sb.append('\n');
+				sb.append(plan);
+			}
 			for (SootMethod sootMethod : sootClass.getMethods()) {
-				if (!sootMethod.isConcrete()) {
+				if (sootMethod.getName().startsWith(AccessorGenerator.PREFIX)) {
+					sb.append('\n');
+					sb.append(sootMethod.getSignature());
+				}
+			}
+			input = ClassCache.hash(sb.toString());
+		}
+		inputs.put(sootClass, input);
+		return input;
+	}
+
+	private void describeCallsite(CallerCallsite callsite, StringBuilder plan) {
+		plan.append(MethodIndex.getHotSpotSignature(callsite.caller));
+		plan.append(' ');
+		plan.append(MethodIndex.getHotSpotSignature(callsite.owner));
+		plan.append('@');
+		plan.append(callsite.callsite.getBytecodeOffset());
+		plan.append(' ');
+		plan.append(callsite.depth);
+		plan.append(' ');
+		plan.append(callsite.callsite.getCount());
+		InlineTarget monomorphicTarget = monomorphicCallsites.get(callsite.callsite);
+		for (InlineTarget target : callsite.callsite.getTargets()) {
+			plan.append(' ');
+			plan.append(methodIndex.getSignature(target.getCalleeId()));
+			plan.append(' ');
+			plan.append(target.getReceiverClass());
+			plan.append(' ');
+			plan.append(target.getCount());
+			if (target == monomorphicTarget) {
+				plan.append(" monomorphic");
+			}
+		}
+		plan.append('\n');
+	}
+
+	// Rewrites the callees of admitted call sites that use protected members
+	// the caller's package may not, before any of them is inlined. The
+	// accessors are added to the callees' classes, which threads may share.
+	private void generateAccessors(List<CallerCallsite> admittedCallsites) {
+		AccessorGenerator generator = new AccessorGenerator();
+		HashSet<SootMethod> rewritten = new HashSet<>();
+		int enabled = 0;
+		for (CallerCallsite callsite : admittedCallsites) {
+			SootClass callerClass = callsite.caller.getDeclaringClass();
+			boolean blocked = false;
+			boolean unblocked = true;
+			for (SootMethod sootCallee : callsite.callees) {
+				if (!usesProtectedMembers(sootCallee, callerClass)) {
 					continue;
 				}
-				String hotSpotSignature =
-					getHotSpotSignature(sootMethod);
-				methodMap.put(hotSpotSignature, sootMethod);
+				blocked = true;
+				if (generator.rewrite(sootCallee)) {
+					safetyCache.invalidate(sootCallee);
+					rewritten.add(sootCallee);
+				}
+				unblocked = unblocked
+					&& !usesProtectedMembers(sootCallee, callerClass);
+			}
+			if (blocked && unblocked) {
+				++enabled;
 			}
-			}catch(Exception e){continue;}
 		}
+		System.out.println("InlinerTool: accessors " + generator.getAccessorCount()
+			+ " added to " + rewritten.size() + " callees, "
+			+ enabled + " more call sites inlinable");
+	}
 
-		int count = 0;
-		for (Map.Entry<String, HashMap<Integer, List<String>>> entry
-		     : inlineTargets.entrySet()) {
-			String callerHotSpotSignature = entry.getKey();
-			HashMap<Integer, List<String>> bytecodeOffsetCalleeMap =
-				entry.getValue();
+	private boolean usesProtectedMembers(SootMethod sootCallee,
+										 SootClass callerClass) {
+		CalleeSafetyCache.Facts facts = safetyCache.get(sootCallee);
+		return facts.containsProtectedAbstractInvoke()
+			|| facts.containsInterPackageProtectedInvoke(callerClass)
+			|| facts.containsInterPackageProtectedAccess(callerClass);
+	}
+
+	// Classifies a call site with class hierarchy analysis and reports it.
+	// Returns the target to inline without a guard when every profiled
+	// receiver is bound to the only method the call can dispatch to,
+	// otherwise null and the call site is guarded.
+	private InlineTarget classifyCallsite(CallerCallsite callsite,
+										  DispatchAnalysis dispatchAnalysis) {
+		String site = MethodIndex.getHotSpotSignature(callsite.caller)
+			+ "@" + callsite.callsite.getBytecodeOffset()
+			+ (callsite.depth > 1 ? " (depth " + callsite.depth + ")" : "");
+
+		Stmt stmt = findInvoke(callsite.owner, callsite.callsite.getBytecodeOffset());
+		if (stmt == null) {
+			System.out.println("InlinerTool: guarded " + site + ": no call");
+			return null;
+		}
+		List<SootMethod> chaTargets =
+			dispatchAnalysis.getTargets(stmt.getInvokeExpr());
+		if (chaTargets == null) {
+			System.out.println("InlinerTool: guarded " + site
+				+ ": incomplete hierarchy");
+			return null;
+		}
+		if (chaTargets.size() != 1) {
+			System.out.println("InlinerTool: guarded " + site + ": "
+				+ chaTargets.size() + " possible callees");
+			return null;
+		}
 
-			if (!methodMap.containsKey(callerHotSpotSignature)) {
+		SootMethod chaTarget = chaTargets.get(0);
+		InlineTarget monomorphicTarget = null;
+		for (InlineTarget target : callsite.callsite.getTargets()) {
+			if (methodIndex.getMethod(target.getCalleeId()) != chaTarget) {
+				System.out.println("InlinerTool: guarded " + site
+					+ ": profile does not match the only callee "
+					+ MethodIndex.getHotSpotSignature(chaTarget));
+				return null;
+			}
+			if (monomorphicTarget == null) {
+				monomorphicTarget = target;
+			}
+		}
+		System.out.println("InlinerTool: monomorphic " + site + ": "
+			+ MethodIndex.getHotSpotSignature(chaTarget));
+		monomorphicCallsites.put(callsite.callsite, monomorphicTarget);
+		return monomorphicTarget;
+	}
+
+	// Returns the call at bytecodeOffset in sootMethod's body, or null
+	private Stmt findInvoke(SootMethod sootMethod, int bytecodeOffset) {
+		if (sootMethod == null || !sootMethod.isConcrete()) {
+			return null;
+		}
+		for (Unit unit : sootMethod.retrieveActiveBody().getUnits()) {
+			Stmt stmt = (Stmt) unit;
+			if (!stmt.containsInvokeExpr()) {
 				continue;
 			}
+			BytecodeOffsetTag bytecodeOffsetTag = getInvokeOffsetTag(stmt);
+			if (bytecodeOffsetTag != null
+			    && bytecodeOffsetTag.getBytecodeOffset() == bytecodeOffset) {
+				return stmt;
+			}
+		}
+		return null;
+	}
+
+	// The front end folds the store of a call's result into the call,
+	// whose statement then carries the store's bytecode offset as well. The
+	// call's own offset is the smallest.
+	private static BytecodeOffsetTag getInvokeOffsetTag(Stmt stmt) {
+		BytecodeOffsetTag invokeOffsetTag = null;
+		for (Tag tag : stmt.getTags()) {
+			if (tag instanceof BytecodeOffsetTag
+			    && (invokeOffsetTag == null
+			        || ((BytecodeOffsetTag) tag).getBytecodeOffset()
+			           < invokeOffsetTag.getBytecodeOffset())) {
+				invokeOffsetTag = (BytecodeOffsetTag) tag;
+			}
+		}
+		return invokeOffsetTag;
+	}
 
-			SootMethod sootCaller = methodMap.get(
-				callerHotSpotSignature);
-			handleInline(sootCaller, bytecodeOffsetCalleeMap);
+	// Guards compare against the receiver class from the profile when the
+	// targets file has one and a call on it dispatches to the callee, which
+	// also covers subclasses that inherit the callee. Otherwise they compare
+	// against the callee's own class.
+	private void resolveReceiverClasses() {
+		for (HashMap<Integer, InlineCallsite> bytecodeOffsetCalleeMap
+		     : inlineTargets.values()) {
+			resolveReceiverClasses(bytecodeOffsetCalleeMap);
+		}
+	}
+
+	private void resolveReceiverClasses(
+		HashMap<Integer, InlineCallsite> bytecodeOffsetCalleeMap) {
+		for (InlineCallsite callsite : bytecodeOffsetCalleeMap.values()) {
+			for (InlineTarget target : callsite.getTargets()) {
+				HashMap<Integer, InlineCallsite> nestedCallsites =
+					callsite.getNestedCallsites(target.getCalleeId());
+				if (nestedCallsites != null) {
+					resolveReceiverClasses(nestedCallsites);
+				}
+
+				SootMethod sootCallee =
+					methodIndex.getMethod(target.getCalleeId());
+				if (sootCallee == null) {
+					continue;
+				}
+
+				SootClass receiverClass = sootCallee.getDeclaringClass();
+				String receiverClassName = target.getReceiverClassName();
+				if (receiverClassName != null) {
+					SootClass profiledClass =
+						Scene.v().getSootClassUnsafe(receiverClassName, false);
+					if (profiledClass != null
+					    && dispatchesTo(profiledClass, sootCallee)) {
+						receiverClass = profiledClass;
+					}
+				}
+				target.setReceiverClass(receiverClass);
+			}
+		}
+	}
+
+	private boolean dispatchesTo(SootClass receiverClass, SootMethod sootCallee) {
+		SootClass sootClass = receiverClass;
+		while (sootClass != null && !sootClass.isPhantom()) {
+			SootMethod sootMethod =
+				sootClass.getMethodUnsafe(sootCallee.getNumberedSubSignature());
+			if (sootMethod != null) {
+				return sootMethod == sootCallee;
+			}
+			sootClass = sootClass.hasSuperclass() ? sootClass.getSuperclass() : null;
+		}
+		return false;
+	}
+
+	private List<SootMethod> getCallees(
+		HashMap<Integer, InlineCallsite> bytecodeOffsetCalleeMap) {
+		List<SootMethod> callees = new ArrayList<>();
+		addCallees(bytecodeOffsetCalleeMap, callees);
+		return callees;
+	}
+
+	// Includes the callees of nested call sites, whose bodies are copied in
+	// as well
+	private void addCallees(
+		HashMap<Integer, InlineCallsite> bytecodeOffsetCalleeMap,
+		List<SootMethod> callees) {
+		for (InlineCallsite callsite : bytecodeOffsetCalleeMap.values()) {
+			for (InlineTarget target : callsite.getTargets()) {
+				SootMethod sootCallee =
+					methodIndex.getMethod(target.getCalleeId());
+				if (sootCallee == null) {
+					continue;
+				}
+				if (!callees.contains(sootCallee)) {
+					callees.add(sootCallee);
+				}
+				HashMap<Integer, InlineCallsite> nestedCallsites =
+					callsite.getNestedCallsites(target.getCalleeId());
+				if (nestedCallsites != null) {
+					addCallees(nestedCallsites, callees);
+				}
+			}
+		}
+	}
+
+	private SootMethod findGroup(HashMap<SootMethod, SootMethod> parents,
+								 SootMethod method) {
+		SootMethod parent = parents.get(method);
+		if (parent == null) {
+			parents.put(method, method);
+			return method;
+		}
+		if (parent == method) {
+			return method;
+		}
+		SootMethod root = findGroup(parents, parent);
+		parents.put(method, root);
+		return root;
+	}
+
+	// Callers that share a callee, or that are a callee of each other, end
+	// up in the same group. Inlining in one group then never reads or writes
+	// a body another group writes. Groups, and callers within a group, keep
+	// the order of the sequential walk.
+	private List<List<SootMethod>> partitionCallers(
+		List<SootMethod> callers,
+		HashMap<SootMethod, HashMap<Integer, InlineCallsite>> callerTargets) {
+		HashMap<SootMethod, SootMethod> parents = new HashMap<>();
+		for (SootMethod sootCaller : callers) {
+			SootMethod callerRoot = findGroup(parents, sootCaller);
+			for (SootMethod sootCallee
+			     : getCallees(callerTargets.get(sootCaller))) {
+				SootMethod calleeRoot = findGroup(parents, sootCallee);
+				if (calleeRoot != callerRoot) {
+					parents.put(calleeRoot, callerRoot);
+				}
+			}
+		}
+
+		List<List<SootMethod>> groups = new ArrayList<>();
+		HashMap<SootMethod, List<SootMethod>> rootGroups = new HashMap<>();
+		for (SootMethod sootCaller : callers) {
+			SootMethod root = findGroup(parents, sootCaller);
+			List<SootMethod> group = rootGroups.get(root);
+			if (group == null) {
+				group = new ArrayList<>();
+				rootGroups.put(root, group);
+				groups.add(group);
+			}
+			group.add(sootCaller);
+		}
+		return groups;
+	}
+
+	private void inlineInParallel(
+		List<SootMethod> callers,
+		HashMap<SootMethod, HashMap<Integer, InlineCallsite>> callerTargets) {
+		// The front end builds bodies lazily and is not thread safe, so every
+		// body the inliner touches, and the hierarchy SiteInliner asks for,
+		// is built before any worker starts
+		Scene.v().getActiveHierarchy();
+		for (SootMethod sootCaller : callers) {
+			sootCaller.retrieveActiveBody();
+			for (SootMethod sootCallee
+			     : getCallees(callerTargets.get(sootCaller))) {
+				sootCallee.retrieveActiveBody();
+			}
+		}
+
+		List<List<SootMethod>> groups = partitionCallers(callers, callerTargets);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			List<ForkJoinTask<?>> tasks = new ArrayList<>();
+			for (List<SootMethod> group : groups) {
+				tasks.add(pool.submit(() -> {
+					for (SootMethod sootCaller : group) {
+						handleInline(sootCaller, callerTargets.get(sootCaller));
+					}
+				}));
+			}
+			for (ForkJoinTask<?> task : tasks) {
+				task.join();
+			}
+		} finally {
+			pool.shutdown();
 		}
 	}
 
 	private void handleInline(SootMethod sootCaller,
-	                          HashMap<Integer, List<String>> bytecodeOffsetCalleeMap) {
+	                          HashMap<Integer, InlineCallsite> bytecodeOffsetCalleeMap) {
 		Body body = sootCaller.retrieveActiveBody();
 
 		// The bytecode offsets could be wrong (there are bugs in ASM)
@@ -226,9 +1155,7 @@ public class InlinerTransformer extends SceneTransformer {
 				continue;
 			}
 			InvokeExpr invokeExpr = stmt.getInvokeExpr();
-			BytecodeOffsetTag bytecodeOffsetTag =
-				(BytecodeOffsetTag)
-				stmt.getTag("BytecodeOffsetTag");
+			BytecodeOffsetTag bytecodeOffsetTag = getInvokeOffsetTag(stmt);
 			if (bytecodeOffsetTag == null) {
 				continue;
 			}
@@ -236,33 +1163,44 @@ public class InlinerTransformer extends SceneTransformer {
 			Integer bytecodeOffsetKey = Integer.valueOf(bytecodeOffset);
 			bytecodeOffsetFoundMap.put(bytecodeOffsetKey, invokeExpr.getMethod());
 		}
-		String callerSignature = getHotSpotSignature(sootCaller);
 		boolean match = true;
+		InlineCallsite mismatch = null;
+		String mismatchReason = null;
 		for (Integer bytecodeOffsetKey : bytecodeOffsetCalleeMap.keySet()) {
+			InlineCallsite callsite = bytecodeOffsetCalleeMap.get(bytecodeOffsetKey);
 			if (!bytecodeOffsetFoundMap.containsKey(bytecodeOffsetKey)) {
 				match = false;
+				mismatch = callsite;
+				mismatchReason = "offset-mismatch";
 				break;
 			}
 			SootMethod foundSootCallee = bytecodeOffsetFoundMap.get(bytecodeOffsetKey);
-			List<String> targetList = bytecodeOffsetCalleeMap.get(bytecodeOffsetKey);
+			List<InlineTarget> targetList = callsite.getTargets();
 
-			if (targetList.size() > 2) {
+			if (targetList.size() > 2 && !polymorphic
+			    && !monomorphicCallsites.containsKey(callsite)) {
+				rejectCaller(bytecodeOffsetCalleeMap, callsite, "too-many-receivers",
+				             targetList.size() + " receivers, polymorphic inlining is off");
 				return;
 			}
 
-			for (String calleeHotSpotSignature : targetList) {
-				if (!methodMap.containsKey(calleeHotSpotSignature)) {
+			for (InlineTarget target : targetList) {
+				SootMethod sootCallee =
+					methodIndex.getMethod(target.getCalleeId());
+				if (sootCallee == null) {
 					break;
 				}
 
-				SootMethod sootCallee = methodMap.get(calleeHotSpotSignature);
 				if (!foundSootCallee.getName().equals(sootCallee.getName())) {
 					match = false;
+					mismatch = callsite;
+					mismatchReason = "callee-mismatch";
 					break;
 				}
 			}
 		}
 		if (!match) {
+			rejectCaller(bytecodeOffsetCalleeMap, mismatch, mismatchReason, null);
 			return;
 		}
 
@@ -275,9 +1213,7 @@ public class InlinerTransformer extends SceneTransformer {
 			}
 			InvokeExpr invokeExpr = stmt.getInvokeExpr();
 
-			BytecodeOffsetTag bytecodeOffsetTag =
-				(BytecodeOffsetTag)
-				stmt.getTag("BytecodeOffsetTag");
+			BytecodeOffsetTag bytecodeOffsetTag = getInvokeOffsetTag(stmt);
 			if (bytecodeOffsetTag == null) {
 				continue;
 			}
@@ -287,347 +1223,519 @@ public class InlinerTransformer extends SceneTransformer {
 				continue;
 			}
 
-			List<String> targets = bytecodeOffsetCalleeMap.get(bytecodeOffsetKey);
-
-			if (targets.size() > 2) {
-				continue;
-			} else if (targets.size() == 1) {
-				handleSingleInline(targets.get(0), stmt, sootCaller);
-			} else { // targets.size == 2
-				handleDoubleInline(targets, stmt, sootCaller, body);
-			}
+			InlineCallsite callsite = bytecodeOffsetCalleeMap.get(bytecodeOffsetKey);
+			inlineCallsite(callsite, stmt, sootCaller, body, 1);
 		}
 	}
 
-	private void handleSingleInline(String calleeHotSpotSignature,
-									Stmt stmt,
-									SootMethod sootCaller) {
-		if (!methodMap.containsKey(calleeHotSpotSignature)) {
-		    return;
+	// depth is 1 for a call site in the caller's own body
+	private void inlineCallsite(InlineCallsite callsite,
+								Stmt stmt,
+								SootMethod sootCaller,
+								Body body,
+								int depth) {
+		// Any other call site with a single receiver is guarded, as
+		// something else may turn up at run time
+		if (monomorphicCallsites.containsKey(callsite)) {
+			handleSingleInline(callsite, stmt, sootCaller, body, depth);
+		} else if (plannedReceivers.containsKey(callsite)) {
+			handlePolymorphicInline(callsite, stmt, sootCaller, body, depth);
+		} else if (callsite.getTargets().size() <= 2) {
+			handleGuardedInline(callsite, stmt, sootCaller, body, depth);
 		}
+	}
 
-		SootMethod sootCallee = methodMap.get(calleeHotSpotSignature);
-		if (containsProtectedAbstractInvoke(sootCallee)) {
+	// Inlines the call sites HotSpot inlined within a callee into the copy
+	// of its body that was just inlined. SiteInliner copies the tags along
+	// with the statements, so the copies keep the callee's bytecode offsets.
+	private void inlineNested(InlineCallsite callsite,
+							  int calleeId,
+							  List<Unit> inlinedUnits,
+							  SootMethod sootCaller,
+							  Body body,
+							  int depth) {
+		HashMap<Integer, InlineCallsite> nestedCallsites =
+			callsite.getNestedCallsites(calleeId);
+		if (nestedCallsites == null || inlinedUnits == null || depth >= maxDepth) {
 			return;
 		}
 
-		if (containsAbstractMethodError(sootCallee)) {
-			return;
+		for (Unit unit : inlinedUnits) {
+			Stmt stmt = (Stmt) unit;
+			if (!stmt.containsInvokeExpr()) {
+				continue;
+			}
+			BytecodeOffsetTag bytecodeOffsetTag = getInvokeOffsetTag(stmt);
+			if (bytecodeOffsetTag == null) {
+				continue;
+			}
+			InlineCallsite nestedCallsite =
+				nestedCallsites.get(bytecodeOffsetTag.getBytecodeOffset());
+			if (nestedCallsite == null
+			    || !admittedNestedCallsites.contains(nestedCallsite)) {
+				continue;
+			}
+			String mismatchReason = getMismatchReason(stmt, nestedCallsite);
+			if (mismatchReason != null) {
+				reject(nestedCallsite, mismatchReason);
+				continue;
+			}
+			inlineCallsite(nestedCallsite, stmt, sootCaller, body, depth + 1);
 		}
+	}
 
-		SootClass callerClass = sootCaller.getDeclaringClass();
-		if (containsInterPackageProtectedInvoke(callerClass, sootCallee)) {
-			return;
+	// The checks handleInline makes on all call sites of a caller, for a
+	// single nested call site. Returns null if it matches.
+	private String getMismatchReason(Stmt stmt, InlineCallsite callsite) {
+		List<InlineTarget> targets = callsite.getTargets();
+		if (targets.size() > 2 && !polymorphic
+		    && !monomorphicCallsites.containsKey(callsite)) {
+			return "too-many-receivers";
 		}
 
-		if (containsInterPackageProtectedAccess(callerClass, sootCallee)) {
-			return;
+		String methodName = stmt.getInvokeExpr().getMethodRef().getName();
+		for (InlineTarget target : targets) {
+			SootMethod sootCallee = methodIndex.getMethod(target.getCalleeId());
+			if (sootCallee == null) {
+				break;
+			}
+			if (!methodName.equals(sootCallee.getName())) {
+				return "callee-mismatch";
+			}
 		}
+		return null;
+	}
 
-		String sootCalleeClassName =
-			sootCallee.getDeclaringClass().getName();
-		if (containsAbstractBase(stmt) &&
-			sootCalleeClassName.equals("java.lang.Object")) {
+	// Inlines the only callee of a monomorphic call site, without a guard
+	private void handleSingleInline(InlineCallsite callsite,
+									Stmt stmt,
+									SootMethod sootCaller,
+									Body body,
+									int depth) {
+		InlineTarget target = monomorphicCallsites.get(callsite);
+		SootMethod sootCallee = methodIndex.getMethod(target.getCalleeId());
+		String unsafeReason = getUnsafeReason(sootCallee, stmt, sootCaller);
+		if (unsafeReason != null) {
+			reject(callsite, unsafeReason);
 			return;
 		}
 
-		if (sootCalleeClassName.equals("java.lang.Object") &&
-			containsOverriddenMethodCall(sootCaller.getDeclaringClass(),
-										 sootCallee)) {
-			return;
+		// The callee may be declared in a subclass of the receiver's static
+		// type, when it is the only implementation of an abstract method
+		InvokeExpr invokeExpr = stmt.getInvokeExpr();
+		if (invokeExpr instanceof InstanceInvokeExpr) {
+			Value base = ((InstanceInvokeExpr) invokeExpr).getBase();
+			SootClass calleeClass = sootCallee.getDeclaringClass();
+			if (!base.getType().equals(calleeClass.getType())) {
+				castReceiver(body, stmt, calleeClass);
+			}
 		}
 
-		boolean safeToInline =
-			InlinerSafetyManager.ensureInlinability(
-				sootCallee, stmt, sootCaller, "unsafe");
-		if (!safeToInline) {
-			return;
+		List<Unit> inlinedUnits = inlineSite(sootCallee, stmt, sootCaller);
+		if (report != null) {
+			report.inline(callsite, "monomorphic");
 		}
-
-		SiteInliner.inlineSite(sootCallee, stmt, sootCaller);
+		inlineNested(callsite, target.getCalleeId(), inlinedUnits,
+		             sootCaller, body, depth);
 	}
 
-	private void handleDoubleInline(List<String> targets,
-									Stmt stmt,
-									SootMethod sootCaller,
-									Body body) {
-		if (targets.size() != 2) {
+	// Without polymorphic inlining, call sites with one or two receivers
+	// get the same guards as polymorphic ones, with every receiver and none
+	// of the polymorphic limits
+	private void handleGuardedInline(InlineCallsite callsite,
+									 Stmt stmt,
+									 SootMethod sootCaller,
+									 Body body,
+									 int depth) {
+		List<InlineTarget> targets = callsite.getTargets();
+		if (targets.isEmpty() || targets.size() > 2) {
 			return;
 		}
 
-		InvokeExpr invokeExpr = stmt.getInvokeExpr();
-
-		if (!(invokeExpr instanceof VirtualInvokeExpr)) {
+		if (!isGuardableInvoke(stmt.getInvokeExpr())) {
+			reject(callsite, "not-guardable");
 			return;
 		}
 
-		boolean safe = true;
-		for (String calleeHotSpotSignature : targets) {
-			if (!methodMap.containsKey(calleeHotSpotSignature)) {
-			    safe = false;
-				break;
-			}
-			SootMethod sootCallee = methodMap.get(calleeHotSpotSignature);
-
-			if (containsProtectedAbstractInvoke(sootCallee)) {
-				safe = false;
-				break;
+		for (InlineTarget target : targets) {
+			SootMethod sootCallee = methodIndex.getMethod(target.getCalleeId());
+			if (sootCallee == null) {
+				reject(callsite, "callee-not-found",
+				       methodIndex.getSignature(target.getCalleeId()));
+				return;
 			}
-
-			if (containsAbstractMethodError(sootCallee)) {
-				safe = false;
-				break;
+			if (!isExactReceiverType(target.getReceiverClass())) {
+				reject(callsite, "not-exact-receiver",
+				       target.getReceiverClass().getName());
+				return;
 			}
-
-			SootClass callerClass = sootCaller.getDeclaringClass();
-			if (containsInterPackageProtectedInvoke(callerClass, sootCallee)) {
-				safe = false;
-				break;
+			String unsafeReason = getUnsafeReason(sootCallee, stmt, sootCaller);
+			if (unsafeReason != null) {
+				reject(callsite, unsafeReason, MethodIndex.getHotSpotSignature(sootCallee));
+				return;
 			}
+		}
+		if (targets.size() == 2
+		    && targets.get(0).getReceiverClass() == targets.get(1).getReceiverClass()) {
+			reject(callsite, "same-receiver-class",
+			       targets.get(0).getReceiverClass().getName());
+			return;
+		}
 
-			if (containsInterPackageProtectedAccess(callerClass, sootCallee)) {
-				safe = false;
-				break;
-			}
+		inlineGuarded(callsite, targets, stmt, sootCaller, body, depth);
+	}
 
-			String sootCalleeClassName =
-				sootCallee.getDeclaringClass().getName();
-			if (containsAbstractBase(stmt) &&
-				sootCalleeClassName.equals("java.lang.Object")) {
-				safe = false;
-				break;
+	// Returns the inlined statements, or null if nothing was inlined
+	@SuppressWarnings("unchecked")
+	private List<Unit> inlineSite(SootMethod sootCallee,
+								  Stmt stmt,
+								  SootMethod sootCaller) {
+		// No options, as the three argument inlineSite passes
+		HashMap<String, String> inlineOptions = new HashMap<>();
+		List<Unit> inlinedUnits;
+		if (sootCallee.isSynchronized()) {
+			synchronized (sharedStateLock) {
+				inlinedUnits = SiteInliner.inlineSite(sootCallee, stmt, sootCaller,
+													  inlineOptions);
 			}
-
-			if (sootCalleeClassName.equals("java.lang.Object") &&
-				containsOverriddenMethodCall(sootCaller.getDeclaringClass(),
-											 sootCallee)) {
-				safe = false;
-				break;
+		} else {
+			inlinedUnits = SiteInliner.inlineSite(sootCallee, stmt, sootCaller,
+												  inlineOptions);
+		}
+		// The caller may itself be a callee somewhere else
+		safetyCache.invalidate(sootCaller);
+		if (inlinedUnits != null && !inlinedUnits.isEmpty()) {
+			inlinedCallers.add(sootCaller);
+			if (outliner != null) {
+				ColdPathOutliner.tagOwners(inlinedUnits, sootCallee);
 			}
+		}
+		return inlinedUnits;
+	}
 
-			boolean safeToInline =
-				InlinerSafetyManager.ensureInlinability(
-					sootCallee, stmt, sootCaller, "unsafe");
+	// Once the guard has matched, the receiver is known to be exactly
+	// receiverClass. The inlined body uses the receiver as its this local,
+	// so it needs the narrower type to verify.
+	private void castReceiver(Body body, Stmt stmt, SootClass receiverClass) {
+		InstanceInvokeExpr invokeExpr = (InstanceInvokeExpr) stmt.getInvokeExpr();
+		Local receiver = Jimple.v().newLocal("receiver",
+											 receiverClass.getType());
+		body.getLocals().add(receiver);
+
+		CastExpr castExpr = Jimple.v().newCastExpr(invokeExpr.getBase(),
+												   receiverClass.getType());
+		AssignStmt castAssignment = Jimple.v().newAssignStmt(receiver, castExpr);
+		body.getUnits().insertBefore(castAssignment, stmt);
+		invokeExpr.setBase(receiver);
+	}
 
-			if (!safeToInline) {
-				safe = false;
-				break;
-			}
+	// Returns null if sootCallee is safe to inline at stmt, otherwise the
+	// check that failed
+	private String getUnsafeReason(SootMethod sootCallee,
+								   Stmt stmt,
+								   SootMethod sootCaller) {
+		CalleeSafetyCache.Facts facts = safetyCache.get(sootCallee);
+		if (facts.containsProtectedAbstractInvoke()) {
+			return "protected-abstract-invoke";
 		}
 
-		if (!safe) {
-			return;
+		if (facts.containsAbstractMethodError()) {
+			return "abstract-method-error";
 		}
 
-		PatchingChain units = body.getUnits();
-
-		String calleeHotspotSignatureA = targets.get(0);
-		String calleeHotspotSignatureB = targets.get(1);
-		SootMethod calleeA = methodMap.get(calleeHotspotSignatureA);
-		SootMethod calleeB = methodMap.get(calleeHotspotSignatureB);
-		SootClass classA = calleeA.getDeclaringClass();
-		SootClass classB = calleeB.getDeclaringClass();
-		String classAName = classA.getName().replace('.', '/');
-		String classBName = classB.getName().replace('.', '/');
+		SootClass callerClass = sootCaller.getDeclaringClass();
+		if (facts.containsInterPackageProtectedInvoke(callerClass)) {
+			return "inter-package-protected-invoke";
+		}
 
-		VirtualInvokeExpr vInvokeExpr = (VirtualInvokeExpr) invokeExpr;
-		Local base = (Local) vInvokeExpr.getBase();
+		if (facts.containsInterPackageProtectedAccess(callerClass)) {
+			return "inter-package-protected-access";
+		}
 
-		SootMethod getClass = getSootMethodOrNull(base.getType().toString(),
-												  "getClass",
-												  "java.lang.Class",
-												  null);
+		String sootCalleeClassName =
+			sootCallee.getDeclaringClass().getName();
+		if (containsAbstractBase(stmt) &&
+			sootCalleeClassName.equals("java.lang.Object")) {
+			return "object-method-on-abstract-base";
+		}
 
-		if (getClass == null) {
-			// base was an interface
-			return;
+		if (sootCalleeClassName.equals("java.lang.Object") &&
+			containsOverriddenMethodCall(sootCaller.getDeclaringClass(),
+										 sootCallee)) {
+			return "overridden-object-method";
 		}
 
-		String[] forNameArgs = {"java.lang.String"};
-		SootMethod forName = getSootMethod("java.lang.Class",
-										   "forName",
-											"java.lang.Class",
-											Arrays.asList(forNameArgs));
-		SootMethodRef getClassMethodref = getClass.makeRef();
-		SootMethodRef forNameMethodRef = forName.makeRef();
+		synchronized (sharedStateLock) {
+			if (!InlinerSafetyManager.ensureInlinability(
+				    sootCallee, stmt, sootCaller, "unsafe")) {
+				return "not-inlinable";
+			}
+		}
+		return null;
+	}
 
-		VirtualInvokeExpr typeInvokeExpr =
-							Jimple.v().newVirtualInvokeExpr(base,
-														    getClassMethodref);
+	// Guards dispatch on the receiver's class, so they replace virtual and
+	// interface calls; special and static calls are already bound
+	private boolean isGuardableInvoke(InvokeExpr invokeExpr) {
+		return invokeExpr instanceof VirtualInvokeExpr
+			|| invokeExpr instanceof InterfaceInvokeExpr;
+	}
 
+	// The guard compares the receiver's class against the profiled receiver
+	// class, which can never match an interface (default methods) or an
+	// abstract class
+	private boolean isExactReceiverType(SootClass receiverClass) {
+		return !receiverClass.isInterface() && !receiverClass.isAbstract();
+	}
 
-		Local typeLocal = Jimple.v().newLocal("type",
-											  getClass.getReturnType());
-		Local typeA = Jimple.v().newLocal("typeA",
-											   getClass.getReturnType());
-		Local typeB = Jimple.v().newLocal("typeB",
-											   getClass.getReturnType());
-		body.getLocals().add(typeLocal);
-		body.getLocals().add(typeA);
-		body.getLocals().add(typeB);
-
-		StringConstant typeAString = StringConstant.v(classAName);
-		StringConstant typeBString = StringConstant.v(classBName);
-
-		StaticInvokeExpr forClassAExpr =
-							Jimple.v().newStaticInvokeExpr(forNameMethodRef,
-														   typeAString);
-		StaticInvokeExpr forClassBExpr =
-							Jimple.v().newStaticInvokeExpr(forNameMethodRef,
-														   typeBString);
-
-		// type = receiver.getClass()
-		// typeA = classA
-		// typeB = classB
-		// stmt
-		// clonedstmt
-		// done
-		AssignStmt typeAssignment = Jimple.v().newAssignStmt(typeLocal,
-															 typeInvokeExpr);
-		AssignStmt typeAAssignment = Jimple.v().newAssignStmt(typeA,
-															  forClassAExpr);
-		AssignStmt typeBAssignment = Jimple.v().newAssignStmt(typeB,
-															  forClassAExpr);
-		Stmt clonedStmt = (Stmt) stmt.clone();
-		units.insertAfter(clonedStmt, stmt);
+	// Orders the receivers by profile count and keeps at most maxReceivers
+	// of them, each with at least minShare of the call site's count. Without
+	// counts every receiver gets an equal share and file order is kept.
+	// The safety checks need the call, so they are left to
+	// handlePolymorphicInline.
+	private List<InlineTarget> selectReceivers(InlineCallsite callsite,
+											   SootMethod sootCaller) {
+		List<InlineTarget> sortedTargets = new ArrayList<>(callsite.getTargets());
+		sortedTargets.sort(
+			Comparator.comparingLong(InlineTarget::getCount).reversed());
+
+		long total = callsite.getCount();
+
+		List<InlineTarget> receivers = new ArrayList<>();
+		List<SootClass> receiverClasses = new ArrayList<>();
+		for (InlineTarget target : sortedTargets) {
+			if (receivers.size() >= maxReceivers) {
+				break;
+			}
 
-		units.insertBefore(typeAssignment, stmt);
-		units.insertAfter(typeAAssignment, typeAssignment);
-		units.insertAfter(typeBAssignment, typeAAssignment);
+			double share = total == 0
+				? 1.0 / sortedTargets.size()
+				: (double) target.getCount() / total;
+			if (share < minShare) {
+				break;
+			}
 
-		NopStmt done = Jimple.v().newNopStmt();
-		units.insertAfter(done, clonedStmt);
-
-		// if type != typeA goto l2
-		//    inline typeA.foo
-		//    goto done
-		// l2:
-		// if type != typeB goto done
-		//    inline typeB.foo
-        // done:
-		NeExpr typeAComparison = Jimple.v().newNeExpr(typeLocal, typeA);
-		NeExpr typeBComparison = Jimple.v().newNeExpr(typeLocal, typeB);
-
-		IfStmt typeBIf = Jimple.v().newIfStmt(typeBComparison, done);
-		IfStmt typeAIf = Jimple.v().newIfStmt(typeAComparison, typeBIf);
-		units.insertBefore(typeAIf, stmt);
-		units.insertBefore(typeBIf, clonedStmt);
-
-		GotoStmt gotoDone = Jimple.v().newGotoStmt(done);
-		units.insertAfter(gotoDone, stmt);
-
-		SiteInliner.inlineSite(calleeA, stmt, sootCaller);
-		SiteInliner.inlineSite(calleeB, clonedStmt, sootCaller);
-	}
-
-    private boolean containsProtectedAbstractInvoke(SootMethod method) {
-		Body body = method.retrieveActiveBody();
-		Iterator units = body.getUnits().iterator();
-		while (units.hasNext()) {
-			Stmt invokeStmt = (Stmt) units.next();
-			if (!invokeStmt.containsInvokeExpr()) {
+			SootClass receiverClass = target.getReceiverClass();
+			if (receiverClasses.contains(receiverClass)) {
 				continue;
 			}
 
-			InvokeExpr ie = invokeStmt.getInvokeExpr();
-			if (ie.getMethod().isProtected() && ie.getMethod().isAbstract()) {
-				return true;
+			if (getReceiverRejection(target, null, sootCaller, false) != null) {
+				continue;
 			}
+			receivers.add(target);
+			receiverClasses.add(receiverClass);
 		}
-		return false;
+		return receivers;
 	}
 
-	private boolean containsAbstractMethodError(SootMethod method) {
-		for (SootClass e : method.getExceptions()) {
-			if (e.getName().equals("java.lang.AbstractMethodError")) {
-				return true;
-			}
+	// Returns null if target can be one of the receivers selectReceivers
+	// picks, otherwise why not
+	private String getReceiverRejection(InlineTarget target,
+										Stmt stmt,
+										SootMethod sootCaller,
+										boolean checkSafety) {
+		SootMethod sootCallee = methodIndex.getMethod(target.getCalleeId());
+		if (sootCallee == null) {
+			return "callee-not-found";
 		}
 
-		Body body = method.retrieveActiveBody();
-		Iterator units = body.getUnits().iterator();
-		while (units.hasNext()) {
-			Stmt stmt = (Stmt) units.next();
-			if (!(stmt instanceof ThrowStmt)) {
-				continue;
-			}
+		if (!isExactReceiverType(target.getReceiverClass())) {
+			return "not-exact-receiver";
+		}
 
-			ThrowStmt throwStmt = (ThrowStmt) stmt;
-			Local local = (Local) throwStmt.getOp();
-			String type = local.getType().toString();
-			if (type.equals("java.lang.AbstractMethodError")) {
-				return true;
-			}
+		// A receiver too large or unsafe to inline is left to the
+		// fallback dispatch
+		if (!budget.isCalleeWithinLimit(sootCallee)) {
+			return "over-budget";
 		}
-		return false;
-	}
 
-	private boolean containsInterPackageProtectedInvoke(SootClass callerClass, SootMethod target) {
-		Body body = target.retrieveActiveBody();
-		Iterator units = body.getUnits().iterator();
+		if (checkSafety) {
+			return getUnsafeReason(sootCallee, stmt, sootCaller);
+		}
+		return null;
+	}
 
-		SootClass targetClass = target.getDeclaringClass();
-		String callerPackage = callerClass.getPackageName();
-		String targetPackage = targetClass.getPackageName();
-		if (callerPackage.equals(targetPackage)) {
-			return false;
+	// Reports why the hottest receiver of callsite was not selected, and
+	// so nothing was inlined
+	private void rejectReceivers(InlineCallsite callsite,
+								 Stmt stmt,
+								 SootMethod sootCaller) {
+		InlineTarget hottest = null;
+		for (InlineTarget target : callsite.getTargets()) {
+			if (hottest == null || target.getCount() > hottest.getCount()) {
+				hottest = target;
+			}
 		}
+		String detail = methodIndex.getSignature(hottest.getCalleeId());
+		long total = callsite.getCount();
+		if (total != 0 && (double) hottest.getCount() / total < minShare) {
+			reject(callsite, "below-min-share", detail);
+			return;
+		}
+		String reason = getReceiverRejection(hottest, stmt, sootCaller, true);
+		reject(callsite, reason != null ? reason : "no-receivers", detail);
+	}
 
-		// will inlining this target invoke a protected method
-		// from another package?
-		// go through every invoke statement to check
-		while (units.hasNext()) {
-			Stmt stmt = (Stmt) units.next();
+	private void handlePolymorphicInline(InlineCallsite callsite,
+										 Stmt stmt,
+										 SootMethod sootCaller,
+										 Body body,
+										 int depth) {
+		if (!isGuardableInvoke(stmt.getInvokeExpr())) {
+			reject(callsite, "not-guardable");
+			return;
+		}
 
-			if (!stmt.containsInvokeExpr()) {
-				continue;
+		// Only the receivers the budget was charged for, a receiver unsafe
+		// here is left to the fallback
+		List<InlineTarget> receivers = new ArrayList<>();
+		for (InlineTarget target : plannedReceivers.get(callsite)) {
+			if (getReceiverRejection(target, stmt, sootCaller, true) == null) {
+				receivers.add(target);
 			}
-
-			InvokeExpr ie = stmt.getInvokeExpr();
-			SootMethod targetMethod = ie.getMethod();
-			if (targetMethod.isProtected()) {
-				return true;
+		}
+		if (receivers.isEmpty()) {
+			if (report != null) {
+				rejectReceivers(callsite, stmt, sootCaller);
 			}
+			return;
 		}
-		return false;
-	}
 
-	private boolean containsInterPackageProtectedAccess(SootClass callerClass, SootMethod target) {
-		Body body = target.retrieveActiveBody();
-		Iterator units = body.getUnits().iterator();
+		inlineGuarded(callsite, receivers, stmt, sootCaller, body, depth);
+	}
 
-		SootClass targetClass = target.getDeclaringClass();
-		String callerPackage = callerClass.getPackageName();
-		String targetPackage = targetClass.getPackageName();
-		if (callerPackage.equals(targetPackage)) {
-			return false;
+	// Replaces stmt with one exact-type guard per receiver, in order, each
+	// followed by its inlined callee. A receiver that matches none of them
+	// takes the original call, which is moved to the end of the body so the
+	// inlined paths fall through to each other and the cold path is out of
+	// line:
+	//
+	//    type = receiver.getClass()
+	//    if type != class "A" goto l2
+	//    inline A.foo
+	//    goto done
+	// l2:
+	//    if type != class "B" goto fallback
+	//    inline B.foo
+	// done:
+	//    ...
+	// fallback:
+	//    stmt
+	//    goto done
+	private void inlineGuarded(InlineCallsite callsite,
+							   List<InlineTarget> receivers,
+							   Stmt stmt,
+							   SootMethod sootCaller,
+							   Body body,
+							   int depth) {
+		PatchingChain<Unit> units = body.getUnits();
+
+		InstanceInvokeExpr iInvokeExpr = (InstanceInvokeExpr) stmt.getInvokeExpr();
+		Local base = (Local) iInvokeExpr.getBase();
+
+		// The fallback has to stay in the exception ranges the call was in
+		List<Trap> fallbackTraps = new ArrayList<>();
+		for (Trap trap : body.getTraps()) {
+			for (Iterator<Unit> trapIter =
+			     units.iterator(trap.getBeginUnit(), units.getPredOf(trap.getEndUnit()));
+			     trapIter.hasNext(); ) {
+				if (trapIter.next() == stmt) {
+					fallbackTraps.add(trap);
+					break;
+				}
+			}
 		}
 
-		while (units.hasNext()) {
-			Stmt stmt = (Stmt) units.next();
-			if (!(stmt instanceof AssignStmt)) {
-				continue;
-			}
+		Local typeLocal = Jimple.v().newLocal("type",
+											  getClassMethod.getReturnType());
+		body.getLocals().add(typeLocal);
 
-			AssignStmt as = (AssignStmt)stmt;
-			Value left = as.getLeftOp();
-			Value right = as.getRightOp();
+		// Jumps to the call now jump to the guards
+		AssignStmt typeAssignment = Jimple.v().newAssignStmt(
+			typeLocal,
+			Jimple.v().newVirtualInvokeExpr(base, getClassMethod.makeRef()));
+		units.insertBefore(typeAssignment, stmt);
 
-			if (left instanceof FieldRef) {
-				SootField f = ((FieldRef)left).getField();
-				if (f.isProtected()) {
-					return true;
-				}
+		Stmt fallback = (Stmt) stmt.clone();
+		fallback.addAllTagsOf(stmt);
+		NopStmt done = Jimple.v().newNopStmt();
+		units.swapWith(stmt, done);
+		// With instrumentation, the guards jump to the fallback's counter
+		Stmt fallbackEntry = fallback;
+		if (guardInstrumentation != null) {
+			Stmt fallbackHit = guardInstrumentation.newFallbackHit(callsite);
+			if (fallbackHit != null) {
+				fallbackEntry = fallbackHit;
 			}
+		}
 
-			if (right instanceof FieldRef) {
-				SootField f = ((FieldRef)right).getField();
-				if (f.isProtected()) {
-					return true;
+		// Only insertAfter is used from here on, so no jumps get redirected
+		Unit last = typeAssignment;
+		IfStmt previousGuard = null;
+		List<Stmt> receiverStmts = new ArrayList<>();
+		for (int i = 0; i < receivers.size(); ++i) {
+			SootClass receiverClass = receivers.get(i).getReceiverClass();
+			NeExpr typeComparison = Jimple.v().newNeExpr(
+				typeLocal, ClassConstant.fromType(receiverClass.getType()));
+			IfStmt guard = Jimple.v().newIfStmt(typeComparison, fallbackEntry);
+			if (previousGuard != null) {
+				previousGuard.setTarget(guard);
+			}
+			units.insertAfter(guard, last);
+			last = guard;
+
+			if (guardInstrumentation != null) {
+				Stmt hit = guardInstrumentation.newHit(
+					callsite, callsite.getTargets().indexOf(receivers.get(i)));
+				if (hit != null) {
+					units.insertAfter(hit, last);
+					last = hit;
 				}
 			}
+
+			Stmt receiverStmt = (Stmt) fallback.clone();
+			units.insertAfter(receiverStmt, last);
+			last = receiverStmt;
+			// The last inlined callee falls through to done
+			if (i < receivers.size() - 1) {
+				GotoStmt gotoDone = Jimple.v().newGotoStmt(done);
+				units.insertAfter(gotoDone, receiverStmt);
+				last = gotoDone;
+			}
+
+			castReceiver(body, receiverStmt, receiverClass);
+			receiverStmts.add(receiverStmt);
+			previousGuard = guard;
+		}
+
+		// Nothing falls off the end of a body, so the fallback is only
+		// reached through the last guard
+		GotoStmt fallbackDone = Jimple.v().newGotoStmt(done);
+		if (fallbackEntry != fallback) {
+			units.addLast(fallbackEntry);
+		}
+		units.addLast(fallback);
+		units.addLast(fallbackDone);
+		for (Trap trap : fallbackTraps) {
+			body.getTraps().add(Jimple.v().newTrap(trap.getException(),
+												   fallback,
+												   fallbackDone,
+												   trap.getHandlerUnit()));
+		}
+
+		if (report != null) {
+			report.inline(callsite, "guarded, " + receivers.size() + " of "
+				+ callsite.getTargets().size() + " receivers");
+		}
+		for (int i = 0; i < receivers.size(); ++i) {
+			int calleeId = receivers.get(i).getCalleeId();
+			List<Unit> inlinedUnits = inlineSite(methodIndex.getMethod(calleeId),
+												 receiverStmts.get(i),
+												 sootCaller);
+			inlineNested(callsite, calleeId, inlinedUnits,
+			             sootCaller, body, depth);
 		}
-		return false;
 	}
 
 	private SootMethod getSootMethod(String className,
@@ -641,22 +1749,6 @@ public class InlinerTransformer extends SceneTransformer {
 		return Scene.v().getMethod(name);
 	}
 
-	private SootMethod getSootMethodOrNull(String className,
-										   String methodName,
-										   String retType,
-										   List<String> args) {
-		String name = buildSootMethodString(className,
-											methodName,
-											retType,
-											args);
-
-		if (!Scene.v().containsMethod(name)) {
-			return null;
-		}
-
-		return Scene.v().getMethod(name);
-	}
-
 	private boolean containsAbstractBase(Stmt stmt) {
 		// checked containsInvokeExpr earlier
 		InvokeExpr ie = stmt.getInvokeExpr();
@@ -691,7 +1783,7 @@ public class InlinerTransformer extends SceneTransformer {
 		StringBuilder sb = new StringBuilder();
 		sb.append("<");
 		sb.append(className); // qualified.class.name
-		sb.append(":");
+		sb.append(": ");
 		sb.append(retType); // return type
 		sb.append(" ");
 		sb.append(methodName); // methodName(P1, P2)
@@ -0,0 +1,116 @@
+package InlinerTool;
+
+import soot.FoundFile;
+import soot.Scene;
+import soot.SootClass;
+import soot.SourceLocator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Narrows a Soot run to the classes that take part in inlining. Of the
+// classes under -process-dir, only the ones that declare a caller or callee
+// of the inline targets are application classes, whose bodies Soot builds,
+// transforms and writes. The others are only resolved to their hierarchy, so
+// class hierarchy analysis still sees every receiver type of the program,
+// and are copied to the output unchanged. Callees outside -process-dir get
+// bodies without being written, and nothing else on the class path is
+// loaded unless something in scope refers to it.
+public class LoadingScope {
+
+	private Set<String> targetClassNames;
+	private List<String> processDirs = new ArrayList<>();
+	private List<String> outOfScopeClassNames = new ArrayList<>();
+
+	public LoadingScope(Set<String> targetClassNames) {
+		this.targetClassNames = targetClassNames;
+	}
+
+	// Returns the Soot arguments for the scoped run: -process-dir entries
+	// move to the class path and the classes in scope are named instead.
+	// The call graph is disabled, the transformer does not use it and
+	// building it loads the bodies of everything reachable.
+	public List<String> apply(List<String> args) {
+		List<String> scopedArgs = new ArrayList<>();
+		int classPathIndex = -1;
+		for (int i = 0; i < args.size(); ++i) {
+			String arg = args.get(i);
+			if (arg.equals("-process-dir") && i + 1 < args.size()) {
+				processDirs.add(args.get(++i));
+				continue;
+			}
+			if ((arg.equals("-cp") || arg.equals("-soot-class-path")
+			     || arg.equals("-soot-classpath")) && i + 1 < args.size()) {
+				classPathIndex = scopedArgs.size() + 1;
+			}
+			scopedArgs.add(arg);
+		}
+		if (processDirs.isEmpty()) {
+			return args;
+		}
+
+		String processClassPath = String.join(File.pathSeparator, processDirs);
+		if (classPathIndex >= 0) {
+			scopedArgs.set(classPathIndex, processClassPath + File.pathSeparator
+				+ scopedArgs.get(classPathIndex));
+		} else {
+			scopedArgs.add("-cp");
+			scopedArgs.add(processClassPath);
+		}
+		scopedArgs.add("-p");
+		scopedArgs.add("cg");
+		scopedArgs.add("enabled:false");
+
+		HashSet<String> processClassNames = new HashSet<>();
+		for (String processDir : processDirs) {
+			for (String className : SourceLocator.v().getClassesUnder(processDir)) {
+				if (!processClassNames.add(className)) {
+					continue;
+				}
+				if (targetClassNames.contains(className)) {
+					scopedArgs.add(className);
+				} else {
+					outOfScopeClassNames.add(className);
+					Scene.v().addBasicClass(className, SootClass.HIERARCHY);
+				}
+			}
+		}
+		for (String className : targetClassNames) {
+			if (!processClassNames.contains(className)) {
+				Scene.v().addBasicClass(className, SootClass.BODIES);
+			}
+		}
+
+		System.out.println("InlinerTool: scoped to "
+			+ (processClassNames.size() - outOfScopeClassNames.size())
+			+ " of " + processClassNames.size() + " classes");
+		return scopedArgs;
+	}
+
+	// Copies the class files left out of the run into outputDir, so it holds
+	// the whole program as a full run would
+	public void copyOutOfScopeClasses(String outputDir) throws IOException {
+		for (String className : outOfScopeClassNames) {
+			String fileName = className.replace('.', '/') + ".class";
+			FoundFile foundFile = SourceLocator.v().lookupInClassPath(fileName);
+			if (foundFile == null) {
+				continue;
+			}
+			File outputFile = new File(outputDir, fileName);
+			outputFile.getParentFile().mkdirs();
+			try (InputStream inputStream = foundFile.inputStream()) {
+				Files.copy(inputStream, outputFile.toPath(),
+				           StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				foundFile.close();
+			}
+		}
+	}
+}
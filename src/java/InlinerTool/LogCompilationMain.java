@@ -0,0 +1,38 @@
+package InlinerTool;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Writes an inline targets file for Main from a HotSpot LogCompilation file,
+// and the branch profile for -inliner-outline if one is named:
+//   java InlinerTool.LogCompilationMain <hotspot.log> <inline-targets>
+//       [<branch-profile>]
+public class LogCompilationMain {
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2 && args.length != 3) {
+			System.err.println("usage: LogCompilationMain <hotspot.log>"
+				+ " <inline-targets> [<branch-profile>]");
+			System.exit(1);
+		}
+
+		LogCompilationParser parser = new LogCompilationParser();
+		try (InputStream inputStream =
+		     new BufferedInputStream(new FileInputStream(args[0]))) {
+			parser.parse(inputStream);
+		}
+		try (InlineTargetsWriter writer = new InlineTargetsWriter(args[1])) {
+			parser.getProfile().write(writer);
+		}
+		if (args.length == 3) {
+			parser.getBranchProfile().write(args[2]);
+			System.out.println("LogCompilation: "
+				+ parser.getBranchProfile().size() + " branches written");
+		}
+
+		System.out.println("LogCompilation: " + parser.getTasks() + " tasks, "
+			+ parser.getProfile().size() + " call sites written, "
+			+ parser.getBlacklistedCallsites() + " blacklisted");
+	}
+}
@@ -0,0 +1,513 @@
+package InlinerTool;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+// Reads a HotSpot LogCompilation file (-XX:+LogCompilation) in one streaming
+// pass and collects the inlining decisions C2 made at invokevirtual and
+// invokeinterface call sites. This is the visit_parse and handle_inline_fail
+// logic of the importlogcompilation Django command, without the database.
+// Call sites in the parse of an inlined callee are recorded under the path of
+// call sites that inlined it, and call sites of on-stack replacement
+// compilations are marked as such. The branch counts of each parse, and the
+// uncommon traps compiled code hit, go into a BranchProfile.
+//
+// The klass, method and type ids in the log are only valid within a task, so
+// they are dropped at the end of each task. What is kept is one entry per
+// distinct call site and receiver, so memory grows with the size of the
+// profiled program and not with the size of the log.
+public class LogCompilationParser {
+
+	// Reasons that do not make the call site a bad candidate, HotSpot only
+	// ran out of budget or had no profile to go on
+	private static final HashSet<String> IGNORED_FAIL_REASONS =
+		new HashSet<>(Arrays.asList(
+			"callee is too large",
+			"inlining prohibited by policy",
+			"too big",
+			"no static binding",
+			"receiver not constant",
+			"already compiled into a medium method",
+			"already compiled into a big method",
+			"total inlining greater than DesiredMethodLimit"));
+
+	// The calls that dispatch on a profiled receiver
+	private static final String INVOKEVIRTUAL = "182";
+	private static final String INVOKEINTERFACE = "185";
+	private static final int ACC_ABSTRACT = 0x400;
+	// Parameter names of the primitive types in HotSpot signatures, by
+	// descriptor character
+	private static final HashMap<Character, String> PRIMITIVE_TYPES =
+		new HashMap<>();
+	static {
+		PRIMITIVE_TYPES.put('B', "byte");
+		PRIMITIVE_TYPES.put('C', "char");
+		PRIMITIVE_TYPES.put('D', "double");
+		PRIMITIVE_TYPES.put('F', "float");
+		PRIMITIVE_TYPES.put('I', "int");
+		PRIMITIVE_TYPES.put('J', "long");
+		PRIMITIVE_TYPES.put('S', "short");
+		PRIMITIVE_TYPES.put('Z', "boolean");
+	}
+
+	// A receiver class and count from the profile of a call, not yet
+	// matched to the callee inlined for it
+	private static class ProfiledReceiver {
+		String className;
+		long count;
+	}
+
+	// The state visit_parse keeps in its locals, one per nested parse element
+	private static class ParseState {
+		// The parsed method's signature, preceded by the path of call sites
+		// down to it when it is inlined into another method
+		String callerPath;
+		// The parsed method's signature alone
+		String method;
+		// Of the last bc element, which a branch element refers to
+		int bytecodeOffset;
+		String callsite;
+		// The call site whose callee the next nested parse element inlines
+		String inlinedCallsite;
+		int callsiteBytecodeOffset;
+		String call;
+		// The call is to an interface or abstract method
+		boolean abstractCall;
+		String receiver1;
+		String receiver2;
+		Long count;
+		List<ProfiledReceiver> receivers = new ArrayList<>();
+
+		void resetCallsite() {
+			callsite = null;
+			call = null;
+			abstractCall = false;
+			receiver1 = null;
+			receiver2 = null;
+		}
+	}
+
+	private InlineProfile profile = new InlineProfile();
+	private BranchProfile branchProfile = new BranchProfile();
+	private HashSet<String> blacklistedCallsites = new HashSet<>();
+	// Signatures and class names are shared by every task that mentions them
+	private HashMap<String, String> names = new HashMap<>();
+
+	// Valid within one task
+	private HashMap<String, String> klassNames = new HashMap<>();
+	private HashMap<String, String> methodSignatures = new HashMap<>();
+	private HashMap<String, String> typeNames = new HashMap<>();
+	private HashSet<String> abstractMethodIds = new HashSet<>();
+
+	private long tasks = 0;
+	// The current task is an OSR compilation. Every call site it parses is
+	// marked, not only those in the loop at osr_bci.
+	private boolean osrTask = false;
+
+	public void parse(InputStream inputStream) throws IOException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		try {
+			XMLStreamReader reader = factory.createXMLStreamReader(inputStream);
+			try {
+				parse(reader);
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private void parse(XMLStreamReader reader) throws XMLStreamException {
+		ArrayDeque<String> elements = new ArrayDeque<>();
+		ArrayDeque<ParseState> parseStates = new ArrayDeque<>();
+		int compilationLogDepth = 0;
+		int skipDepth = 0;
+		// Set by an uncommon trap hit at run time, until its innermost jvms
+		// element is read
+		boolean trapHit = false;
+
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				String name = elements.pop();
+				if (skipDepth > 0) {
+					--skipDepth;
+				} else if (name.equals("parse") && compilationLogDepth > 0) {
+					parseStates.pop();
+				} else if (name.equals("task")) {
+					resetLookups();
+				} else if (name.equals("compilation_log")) {
+					--compilationLogDepth;
+				}
+				continue;
+			}
+			if (event != XMLStreamConstants.START_ELEMENT) {
+				continue;
+			}
+
+			String name = reader.getLocalName();
+			String parent = elements.peek();
+			elements.push(name);
+			if (skipDepth > 0) {
+				++skipDepth;
+				continue;
+			}
+
+			if (name.equals("compilation_log")) {
+				++compilationLogDepth;
+				continue;
+			}
+			// The tty section echoes tasks without the parse details, and
+			// logs the uncommon traps compiled code hits
+			if (compilationLogDepth == 0) {
+				if (name.equals("uncommon_trap")) {
+					trapHit = attribute(reader, "thread") != null;
+				} else if (name.equals("jvms") && trapHit) {
+					trapHit = false;
+					String method = getSignature(attribute(reader, "method"));
+					if (method != null) {
+						branchProfile.recordTrap(
+							method, Integer.parseInt(attribute(reader, "bci")));
+					}
+				}
+				continue;
+			}
+
+			if (name.equals("task")) {
+				++tasks;
+				resetLookups();
+				osrTask = attribute(reader, "osr_bci") != null;
+			} else if (name.equals("phase")) {
+				if ("escapeAnalysis".equals(attribute(reader, "name"))) {
+					skipDepth = 1;
+				}
+			} else if (name.equals("parse")) {
+				ParseState parseState = new ParseState();
+				parseState.method = methodSignatures.get(attribute(reader, "method"));
+				parseState.callerPath = parseState.method;
+				ParseState parentState = parseStates.peek();
+				if (parseState.callerPath != null && parentState != null
+				    && parentState.inlinedCallsite != null) {
+					parseState.callerPath = parentState.inlinedCallsite
+						+ InlineTargetsReader.PATH_SEPARATOR
+						+ parseState.callerPath;
+				}
+				parseStates.push(parseState);
+			} else if ("parse".equals(parent)) {
+				visitParseChild(reader, name, parseStates.peek());
+			} else if ("phase".equals(parent)) {
+				visitLookup(reader, name);
+			}
+		}
+	}
+
+	private void visitParseChild(XMLStreamReader reader,
+	                             String name,
+	                             ParseState state) {
+		if (visitLookup(reader, name)) {
+			return;
+		}
+
+		if (name.equals("bc")) {
+			state.inlinedCallsite = null;
+			state.bytecodeOffset = Integer.parseInt(attribute(reader, "bci"));
+			String code = attribute(reader, "code");
+			if (INVOKEVIRTUAL.equals(code) || INVOKEINTERFACE.equals(code)) {
+				state.resetCallsite();
+				if (state.callerPath == null) {
+					return;
+				}
+				state.callsiteBytecodeOffset =
+					Integer.parseInt(attribute(reader, "bci"));
+				state.callsite = InlineProfile.getKey(
+					state.callerPath, state.callsiteBytecodeOffset);
+				state.count = null;
+				state.receivers.clear();
+			} else if (state.callsite != null) {
+				state.resetCallsite();
+			}
+		} else if (name.equals("call")) {
+			// C1 logs the interface or abstract method it bound through the
+			// class hierarchy as the call, which is no callee to inline
+			String methodId = attribute(reader, "method");
+			state.abstractCall = abstractMethodIds.contains(methodId);
+			state.call = state.abstractCall
+				? null : methodSignatures.get(methodId);
+			if (state.callsite != null && state.count == null) {
+				// The count is -1 when the call site has no profile
+				state.count = Math.max(longAttribute(reader, "count"), 0);
+				for (String receiver : new String[] {"receiver", "receiver2"}) {
+					String klassId = attribute(reader, receiver);
+					if (klassId == null) {
+						break;
+					}
+					ProfiledReceiver profiledReceiver = new ProfiledReceiver();
+					profiledReceiver.className = klassNames.get(klassId);
+					profiledReceiver.count =
+						longAttribute(reader, receiver + "_count");
+					state.receivers.add(profiledReceiver);
+				}
+			}
+
+			if (!"1".equals(attribute(reader, "virtual"))
+			    || !"1".equals(attribute(reader, "inline"))
+			    || attribute(reader, "receiver") == null
+			    || attribute(reader, "receiver2") == null) {
+				return;
+			}
+			state.receiver1 = attribute(reader, "receiver");
+			state.receiver2 = attribute(reader, "receiver2");
+		} else if (name.equals("inline_fail")) {
+			if (state.callsite == null) {
+				return;
+			}
+			// C1 fails abstract calls it cannot bind, which says nothing of
+			// the receivers C2 inlines from the profile
+			if (!state.abstractCall) {
+				handleInlineFail(state.callsite, attribute(reader, "reason"));
+			}
+
+			boolean blacklisted =
+				InlineProfile.isOnPath(state.callsite, blacklistedCallsites);
+			boolean bimorphic = state.receiver1 != null || state.receiver2 != null;
+			if (!bimorphic || blacklisted) {
+				state.callsite = null;
+				state.call = null;
+				return;
+			}
+
+			createPossibleInlineCall(state);
+			state.call = null;
+			if (state.receiver1 != null) {
+				state.receiver1 = null;
+			} else {
+				state.receiver2 = null;
+				state.callsite = null;
+			}
+		} else if (name.equals("inline_success")) {
+			if (state.callsite == null) {
+				return;
+			}
+			createPossibleInlineCall(state);
+			// The parse of the callee follows, its call sites are nested in
+			// this one
+			state.inlinedCallsite = state.callsite;
+
+			if (state.receiver1 != null) {
+				state.receiver1 = null;
+			} else if (state.receiver2 != null) {
+				state.receiver2 = null;
+				state.callsite = null;
+			} else {
+				state.callsite = null;
+			}
+			state.call = null;
+		} else if (name.equals("branch")) {
+			if (state.method != null) {
+				branchProfile.recordCounts(state.method,
+				                           state.bytecodeOffset,
+				                           longAttribute(reader, "taken"),
+				                           longAttribute(reader, "not_taken"));
+			}
+		} else if (name.equals("intrinsic") || name.equals("virtual_call")) {
+			state.resetCallsite();
+		} else if (name.equals("uncommon_trap")) {
+			String reason = attribute(reader, "reason");
+			if ("uninitialized".equals(reason) || "unloaded".equals(reason)) {
+				state.resetCallsite();
+			}
+		}
+	}
+
+	// klass, method and type elements define the ids used by the rest of
+	// the task
+	private boolean visitLookup(XMLStreamReader reader, String name) {
+		if (name.equals("klass")) {
+			klassNames.put(attribute(reader, "id"),
+			               intern(attribute(reader, "name")));
+		} else if (name.equals("type")) {
+			typeNames.put(attribute(reader, "id"),
+			              intern(attribute(reader, "name")));
+		} else if (name.equals("method")) {
+			String klassName = klassNames.get(attribute(reader, "holder"));
+			if (klassName == null) {
+				return true;
+			}
+			StringBuilder sb = new StringBuilder();
+			sb.append(klassName);
+			sb.append('.');
+			sb.append(attribute(reader, "name"));
+			sb.append('(');
+			String arguments = attribute(reader, "arguments");
+			if (arguments != null && !arguments.isEmpty()) {
+				boolean firstArgument = true;
+				for (String argument : arguments.split(" ")) {
+					if (firstArgument) { firstArgument = false; }
+					else               { sb.append(','); }
+
+					String argumentName = typeNames.get(argument);
+					if (argumentName == null) {
+						argumentName = klassNames.get(argument);
+					}
+					sb.append(argumentName);
+				}
+			}
+			sb.append(')');
+			methodSignatures.put(attribute(reader, "id"), intern(sb.toString()));
+			String flags = attribute(reader, "flags");
+			if (flags != null && (Integer.parseInt(flags) & ACC_ABSTRACT) != 0) {
+				abstractMethodIds.add(attribute(reader, "id"));
+			}
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	private void handleInlineFail(String callsite, String reason) {
+		if (IGNORED_FAIL_REASONS.contains(reason)) {
+			return;
+		}
+		blacklistedCallsites.add(callsite);
+		// Nothing from a blacklisted call site, or the call sites nested in
+		// it, is written
+		profile.removeCallsite(callsite);
+	}
+
+	private void createPossibleInlineCall(ParseState state) {
+		// A nested call site would bring back its blacklisted parent when
+		// the targets are read
+		if (state.call == null
+		    || InlineProfile.isOnPath(state.callsite, blacklistedCallsites)) {
+			return;
+		}
+
+		InlineProfile.Callsite callsite = profile.getCallsite(
+			state.callerPath, state.callsiteBytecodeOffset);
+		// A method compiled more than once logs the profile each time, and
+		// the counts only grow, so the largest is kept
+		if (state.count != null) {
+			callsite.setCount(Math.max(callsite.getCount(), state.count));
+		}
+		if (osrTask) {
+			callsite.setOsr(true);
+		}
+
+		// Receivers are inlined in the order the call lists them
+		String receiverClassName = null;
+		long receiverCount = 0;
+		if (!state.receivers.isEmpty()) {
+			ProfiledReceiver profiledReceiver = state.receivers.remove(0);
+			receiverClassName = profiledReceiver.className;
+			receiverCount = profiledReceiver.count;
+		}
+
+		InlineProfile.Receiver receiver =
+			callsite.getReceiver(state.call, receiverClassName);
+		receiver.setCount(Math.max(receiver.getCount(), receiverCount));
+	}
+
+	public InlineProfile getProfile() {
+		return profile;
+	}
+
+	public BranchProfile getBranchProfile() {
+		return branchProfile;
+	}
+
+	public long getTasks() {
+		return tasks;
+	}
+
+	public int getBlacklistedCallsites() {
+		return blacklistedCallsites.size();
+	}
+
+	private void resetLookups() {
+		klassNames.clear();
+		methodSignatures.clear();
+		abstractMethodIds.clear();
+		typeNames.clear();
+	}
+
+	private String intern(String name) {
+		String interned = names.get(name);
+		if (interned == null) {
+			names.put(name, name);
+			interned = name;
+		}
+		return interned;
+	}
+
+	// "pkg/Cls name (Ljava/lang/String;[I)V", as a jvms element names the
+	// method, to pkg/Cls.name(java/lang/String,[I). Returns null if it is
+	// malformed.
+	private static String getSignature(String method) {
+		String[] methodSplit = method == null ? new String[0] : method.split(" ");
+		if (methodSplit.length != 3 || !methodSplit[2].startsWith("(")) {
+			return null;
+		}
+		String descriptor = methodSplit[2];
+		StringBuilder sb = new StringBuilder();
+		sb.append(methodSplit[0]);
+		sb.append('.');
+		sb.append(methodSplit[1]);
+		sb.append('(');
+		int i = 1;
+		try {
+			while (descriptor.charAt(i) != ')') {
+				if (i > 1) {
+					sb.append(',');
+				}
+				int start = i;
+				while (descriptor.charAt(i) == '[') {
+					++i;
+				}
+				if (descriptor.charAt(i) == 'L') {
+					i = descriptor.indexOf(';', i);
+					if (i < 0) {
+						return null;
+					}
+				}
+				++i;
+				String type = descriptor.substring(start, i);
+				if (type.startsWith("[")) {
+					sb.append(type);
+				} else if (type.startsWith("L")) {
+					sb.append(type, 1, type.length() - 1);
+				} else if (PRIMITIVE_TYPES.containsKey(type.charAt(0))) {
+					sb.append(PRIMITIVE_TYPES.get(type.charAt(0)));
+				} else {
+					return null;
+				}
+			}
+		} catch (IndexOutOfBoundsException e) {
+			return null;
+		}
+		sb.append(')');
+		return sb.toString();
+	}
+
+	private static String attribute(XMLStreamReader reader, String name) {
+		return reader.getAttributeValue(null, name);
+	}
+
+	private static long longAttribute(XMLStreamReader reader, String name) {
+		String value = attribute(reader, name);
+		return value == null ? 0 : Long.parseLong(value);
+	}
+}
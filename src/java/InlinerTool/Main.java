@@ -1,6 +1,7 @@
 package InlinerTool;
 
 import soot.PackManager;
+import soot.SourceLocator;
 import soot.Transform;
 
 import java.io.IOException;
@@ -9,6 +10,23 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class Main {
+
+	// Added to every Soot command line
+	static final String[] SOOT_OPTIONS =
+		{"-pp", "-keep-offset", "-w", "-allow-phantom-refs"};
+	// Set with -p wjtp.InlinerTool <option>:<value>
+	static final String TRANSFORM_OPTIONS =
+		"enabled polymorphic max-receivers min-share threads"
+		+ " max-caller-size max-callee-size max-total-growth max-depth cleanup"
+		+ " accessors outline-min-size prune loop-priority";
+	// 8000 is HotSpot's HugeMethodLimit, 325 its FreqInlineSize and 9 its
+	// MaxInlineLevel
+	static final String DEFAULT_TRANSFORM_OPTIONS =
+		"enabled:true polymorphic:false max-receivers:3 min-share:0.0 threads:1"
+		+ " max-caller-size:8000 max-callee-size:325 max-total-growth:0"
+		+ " max-depth:9 cleanup:false accessors:false outline-min-size:10"
+		+ " prune:false loop-priority:4";
+
 	public static void main(String[] args) throws IOException {
 		if (args.length < 2) {
 			System.exit(1);
@@ -18,14 +36,82 @@ public class Main {
 		List<String> argsList =
 			new ArrayList<String>(Arrays.asList(args));
 		String removed = argsList.remove(argsList.size() - 1);
-		argsList.addAll(Arrays.asList(
-			new String[] {"-pp", "-keep-offset", "-w", "-allow-phantom-refs"}));
+		// -inliner-cache <dir> reuses the classes an earlier run wrote
+		String cacheDirectory = null;
+		int cacheIndex = argsList.indexOf("-inliner-cache");
+		if (cacheIndex >= 0 && cacheIndex + 1 < argsList.size()) {
+			cacheDirectory = argsList.remove(cacheIndex + 1);
+			argsList.remove(cacheIndex);
+		}
+		// -inliner-report <file> writes what became of each call site
+		String reportPath = null;
+		int reportIndex = argsList.indexOf("-inliner-report");
+		if (reportIndex >= 0 && reportIndex + 1 < argsList.size()) {
+			reportPath = argsList.remove(reportIndex + 1);
+			argsList.remove(reportIndex);
+		}
+		// -inliner-instrument <file> counts the branches taken at each guard
+		// and writes the guard sites file InlinerRuntime.GuardCounters reads
+		String guardSitesPath = null;
+		int instrumentIndex = argsList.indexOf("-inliner-instrument");
+		if (instrumentIndex >= 0 && instrumentIndex + 1 < argsList.size()) {
+			guardSitesPath = argsList.remove(instrumentIndex + 1);
+			argsList.remove(instrumentIndex);
+		}
+		// -inliner-outline <file> moves the paths the branch profile never saw
+		// run out of the callers inlined into
+		String branchProfilePath = null;
+		int outlineIndex = argsList.indexOf("-inliner-outline");
+		if (outlineIndex >= 0 && outlineIndex + 1 < argsList.size()) {
+			branchProfilePath = argsList.remove(outlineIndex + 1);
+			argsList.remove(outlineIndex);
+		}
+		// -inliner-scoped only loads the classes the inline targets need
+		boolean scoped = argsList.remove("-inliner-scoped");
+		argsList.addAll(Arrays.asList(SOOT_OPTIONS));
+
+		InlinerTransformer inlinerTransformer =
+			new InlinerTransformer(inlineTargetsPath);
+		LoadingScope loadingScope = null;
+		if (scoped) {
+			loadingScope =
+				new LoadingScope(inlinerTransformer.getTargetClassNames());
+			argsList = loadingScope.apply(argsList);
+		}
 		args = argsList.toArray(new String[0]);
 
-		PackManager.v().getPack("wjtp").add(
-			new Transform(
-				"wjtp.InlinerTool",
-				new InlinerTransformer(inlineTargetsPath)));
+		DecisionReport decisionReport = null;
+		if (reportPath != null) {
+			decisionReport = new DecisionReport(reportPath);
+			inlinerTransformer.setReport(decisionReport);
+		}
+		GuardInstrumentation guardInstrumentation = null;
+		if (guardSitesPath != null) {
+			guardInstrumentation = new GuardInstrumentation(guardSitesPath);
+			inlinerTransformer.setGuardInstrumentation(guardInstrumentation);
+		}
+		if (branchProfilePath != null) {
+			inlinerTransformer.setBranchProfile(BranchProfile.read(branchProfilePath));
+		}
+		if (cacheDirectory != null) {
+			inlinerTransformer.setClassCache(
+				new ClassCache(cacheDirectory, String.join(" ", args)));
+		}
+		Transform inlinerTransform =
+			new Transform("wjtp.InlinerTool", inlinerTransformer);
+		inlinerTransform.setDeclaredOptions(TRANSFORM_OPTIONS);
+		inlinerTransform.setDefaultOptions(DEFAULT_TRANSFORM_OPTIONS);
+		PackManager.v().getPack("wjtp").add(inlinerTransform);
 		soot.Main.main(args);
+		inlinerTransformer.updateClassCache();
+		if (decisionReport != null) {
+			decisionReport.write();
+		}
+		if (guardInstrumentation != null) {
+			guardInstrumentation.write();
+		}
+		if (loadingScope != null) {
+			loadingScope.copyOutOfScopeClasses(SourceLocator.v().getOutputDir());
+		}
 	}
 }
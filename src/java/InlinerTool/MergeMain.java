@@ -0,0 +1,70 @@
+package InlinerTool;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Merges LogCompilation logs and inline targets files from several runs into
+// one inline targets file:
+//   java InlinerTool.MergeMain [-min-fraction <f>] [-threads <n>]
+//       <inline-targets> <input>[=<weight>]...
+public class MergeMain {
+	public static void main(String[] args) throws IOException {
+		double minFraction = 0.0;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int i = 0;
+		try {
+			for (; i < args.length && args[i].startsWith("-"); i += 2) {
+				if (args[i].equals("-min-fraction")) {
+					minFraction = Double.parseDouble(args[i + 1]);
+				} else if (args[i].equals("-threads")) {
+					threads = Integer.parseInt(args[i + 1]);
+				} else {
+					usage();
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+			usage();
+		}
+		if (args.length - i < 2 || threads < 1) {
+			usage();
+		}
+
+		String outputPath = args[i++];
+		List<String> paths = new ArrayList<>();
+		List<Double> weights = new ArrayList<>();
+		for (; i < args.length; ++i) {
+			String input = args[i];
+			double weight = 1.0;
+			int equals = input.lastIndexOf('=');
+			if (equals >= 0) {
+				try {
+					weight = Double.parseDouble(input.substring(equals + 1));
+				} catch (NumberFormatException e) {
+					usage();
+				}
+				input = input.substring(0, equals);
+			}
+			if (weight <= 0.0) {
+				usage();
+			}
+			paths.add(input);
+			weights.add(weight);
+		}
+
+		InlineProfileMerger merger = new InlineProfileMerger(minFraction, threads);
+		InlineProfile profile = merger.merge(paths, weights);
+		try (InlineTargetsWriter writer = new InlineTargetsWriter(outputPath)) {
+			profile.write(writer);
+		}
+
+		System.out.println("Merge: " + paths.size() + " inputs, "
+			+ profile.size() + " call sites written");
+	}
+
+	private static void usage() {
+		System.err.println("usage: MergeMain [-min-fraction <f>] [-threads <n>]"
+			+ " <inline-targets> <input>[=<weight>]...");
+		System.exit(1);
+	}
+}
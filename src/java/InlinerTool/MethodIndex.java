@@ -0,0 +1,223 @@
+package InlinerTool;
+
+import soot.ArrayType;
+import soot.BooleanType;
+import soot.ByteType;
+import soot.CharType;
+import soot.DoubleType;
+import soot.FloatType;
+import soot.IntType;
+import soot.LongType;
+import soot.PrimType;
+import soot.RefType;
+import soot.Scene;
+import soot.ShortType;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.Type;
+
+import java.lang.RuntimeException;
+import java.lang.StringBuilder;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+// Maps the HotSpot signatures named in the inline targets file to SootMethods.
+// Each signature is interned to an int id once, while the file is read, and
+// everything after that looks methods up by id. Only the classes that declare
+// one of the interned signatures are searched. With a binary plan, the plan's
+// string ids are the ids and its signatures are not copied to the heap.
+public class MethodIndex {
+
+	private InlinePlan plan;
+	private int planStringCount = 0;
+	// Signatures not in the plan, from id planStringCount on
+	private HashMap<String, Integer> signatureIds = new HashMap<>();
+	private ArrayList<String> signatures = new ArrayList<>();
+	// Indexed by id, may be shorter than size()
+	private ArrayList<SootMethod> methods = new ArrayList<>();
+
+	public MethodIndex() {
+	}
+
+	public MethodIndex(InlinePlan plan) {
+		this.plan = plan;
+		planStringCount = plan.getStringCount();
+	}
+
+	public int intern(String hotSpotSignature) {
+		int id = find(hotSpotSignature);
+		if (id >= 0) {
+			return id;
+		}
+		id = planStringCount + signatures.size();
+		signatureIds.put(hotSpotSignature, id);
+		signatures.add(hotSpotSignature);
+		return id;
+	}
+
+	// -1 if the signature was not interned
+	private int find(String hotSpotSignature) {
+		if (plan != null) {
+			int id = plan.findString(hotSpotSignature);
+			if (id >= 0) {
+				return id;
+			}
+		}
+		Integer id = signatureIds.get(hotSpotSignature);
+		return id == null ? -1 : id;
+	}
+
+	public String getSignature(int id) {
+		if (id < planStringCount) {
+			return plan.getString(id);
+		}
+		return signatures.get(id - planStringCount);
+	}
+
+	// null if the signature did not resolve to a concrete method
+	public SootMethod getMethod(int id) {
+		return id < methods.size() ? methods.get(id) : null;
+	}
+
+	public int size() {
+		return planStringCount + signatures.size();
+	}
+
+	// Must run once the Scene is loaded, and before any lookups
+	public void resolve() {
+		for (String className : getClassNames()) {
+			SootClass sootClass = Scene.v().getSootClassUnsafe(className);
+			if (sootClass == null || sootClass.isPhantom()) {
+				continue;
+			}
+
+			// Classes not resolved to signatures and unhandled parameter
+			// types both throw, such classes hold no targets
+			try {
+				for (SootMethod sootMethod : sootClass.getMethods()) {
+					if (!sootMethod.isConcrete()) {
+						continue;
+					}
+					String hotSpotSignature = getHotSpotSignature(sootMethod);
+					int id = find(hotSpotSignature);
+					if (id < 0) {
+						continue;
+					}
+					while (methods.size() <= id) {
+						methods.add(null);
+					}
+					methods.set(id, sootMethod);
+				}
+			} catch (RuntimeException e) {
+				continue;
+			}
+		}
+	}
+
+	// The classes that declare an interned signature
+	public Set<String> getClassNames() {
+		HashSet<String> classNames = new HashSet<>();
+		if (plan != null) {
+			BitSet methodIds = plan.getMethodIds();
+			for (int id = methodIds.nextSetBit(0); id >= 0;
+			     id = methodIds.nextSetBit(id + 1)) {
+				classNames.add(getClassName(plan.getString(id)));
+			}
+		}
+		for (String hotSpotSignature : signatures) {
+			classNames.add(getClassName(hotSpotSignature));
+		}
+		return classNames;
+	}
+
+	// package/Class.method(...) -> package.Class, the internal class name
+	// cannot contain a '.'
+	private String getClassName(String hotSpotSignature) {
+		int dot = hotSpotSignature.indexOf('.');
+		if (dot < 0) {
+			return hotSpotSignature;
+		}
+		return hotSpotSignature.substring(0, dot).replace('/', '.');
+	}
+
+	// https://docs.oracle.com/javase/specs/jvms/se8/html/jvms-4.html#jvms-4.3.2
+	private static void buildFieldDescriptor(StringBuilder sb, Type type) {
+		if (type instanceof RefType) {
+			RefType refType = (RefType) type;
+			String sootClassName = refType.getClassName();
+			sb.append('L');
+			sb.append(sootClassName.replace('.', '/'));
+			sb.append(';');
+		}
+		else if (type instanceof ArrayType) {
+			ArrayType arrayType = (ArrayType) type;
+			sb.append('[');
+			buildFieldDescriptor(sb, arrayType.baseType);
+		}
+		else if (type instanceof BooleanType) {
+			sb.append('Z');
+		}
+		else if (type instanceof ByteType) {
+			sb.append('B');
+		}
+		else if (type instanceof CharType) {
+			sb.append('C');
+		}
+		else if (type instanceof DoubleType) {
+			sb.append('D');
+		}
+		else if (type instanceof FloatType) {
+			sb.append('F');
+		}
+		else if (type instanceof IntType) {
+			sb.append('I');
+		}
+		else if (type instanceof LongType) {
+			sb.append('J');
+		}
+		else if (type instanceof ShortType) {
+			sb.append('S');
+		}
+		else {
+			throw new RuntimeException(
+				"Unhandled Type: " + type.getClass().getName());
+		}
+	}
+
+	public static String getHotSpotSignature(SootMethod sootMethod) {
+		SootClass sootClass = sootMethod.getDeclaringClass();
+		StringBuilder sb = new StringBuilder();
+		sb.append(sootClass.getName().replace('.', '/'));
+		sb.append('.');
+		sb.append(sootMethod.getName());
+		sb.append('(');
+		boolean firstParameter = true;
+		for (Type parameterType : sootMethod.getParameterTypes()) {
+			if (firstParameter) { firstParameter = false; }
+			else                { sb.append(','); }
+
+			if (parameterType instanceof RefType) {
+				RefType refType = (RefType) parameterType;
+				String sootClassName = refType.getClassName();
+				sb.append(sootClassName.replace('.', '/'));
+			}
+			else if (parameterType instanceof PrimType) {
+				PrimType primType = (PrimType) parameterType;
+				sb.append(primType.toString());
+			}
+			else if (parameterType instanceof ArrayType) {
+				buildFieldDescriptor(sb, parameterType);
+			}
+			else {
+				throw new RuntimeException(
+					"Unhandled Parameter Type: "
+					+ parameterType.getClass().getName());
+			}
+		}
+		sb.append(')');
+		return sb.toString();
+	}
+}
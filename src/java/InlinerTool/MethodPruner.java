@@ -0,0 +1,226 @@
+package InlinerTool;
+
+import soot.Body;
+import soot.FastHierarchy;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.SootMethodRef;
+import soot.Unit;
+import soot.Value;
+import soot.ValueBox;
+import soot.jimple.DynamicInvokeExpr;
+import soot.jimple.MethodHandle;
+import soot.jimple.Stmt;
+import soot.jimple.StringConstant;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Removes the private and package-private methods of application classes
+// that nothing refers to once inlining is done, typically callees that were
+// inlined at every call site. References are followed from every method
+// that could be called from outside: public and protected methods,
+// constructors, static initializers, methods that override or are
+// overridden, annotated methods, the methods serialization calls
+// reflectively and methods whose name appears as a string constant. A
+// package-private method is only removed when every class of its package
+// is an application class, as only those bodies are seen, and no private
+// method is removed from a class with a body that could not be read. The
+// bytes removed are estimated from the bytecode size of each method, not
+// measured in the class files written.
+public class MethodPruner {
+
+	// method_info and the Code attribute around the bytecode
+	private static final int METHOD_OVERHEAD = 26;
+	private static final HashSet<String> SERIALIZATION_METHODS = new HashSet<>(
+		Arrays.asList("writeObject", "readObject", "readObjectNoData",
+		              "writeReplace", "readResolve", "$deserializeLambda$"));
+
+	private InlineBudget budget;
+	private HashSet<SootMethod> reached = new HashSet<>();
+	private ArrayDeque<SootMethod> worklist = new ArrayDeque<>();
+	// Classes with a body that could not be read, which may call any of
+	// their private methods
+	private HashSet<SootClass> unreadClasses = new HashSet<>();
+	// Estimated bytes removed and the methods removed, by class name
+	private LinkedHashMap<String, Long> classBytes = new LinkedHashMap<>();
+	private LinkedHashMap<String, List<String>> classMethods = new LinkedHashMap<>();
+
+	public MethodPruner(InlineBudget budget) {
+		this.budget = budget;
+	}
+
+	public Map<String, Long> getClassBytes() {
+		return classBytes;
+	}
+
+	public Map<String, List<String>> getClassMethods() {
+		return classMethods;
+	}
+
+	// Returns the number of methods removed
+	public int prune() {
+		List<SootClass> applicationClasses =
+			new ArrayList<>(Scene.v().getApplicationClasses());
+		HashSet<String> openPackages = new HashSet<>();
+		for (SootClass sootClass : Scene.v().getClasses()) {
+			if (!sootClass.isApplicationClass()) {
+				openPackages.add(sootClass.getPackageName());
+			}
+		}
+
+		HashMap<SootMethod, Body> bodies = new HashMap<>();
+		HashSet<String> strings = new HashSet<>();
+		for (SootClass sootClass : applicationClasses) {
+			for (SootMethod sootMethod : sootClass.getMethods()) {
+				if (!sootMethod.isConcrete()) {
+					continue;
+				}
+				Body body;
+				try {
+					body = sootMethod.retrieveActiveBody();
+				} catch (RuntimeException e) {
+					// What it refers to is unknown
+					openPackages.add(sootClass.getPackageName());
+					unreadClasses.add(sootClass);
+					continue;
+				}
+				bodies.put(sootMethod, body);
+				for (ValueBox valueBox : body.getUseBoxes()) {
+					if (valueBox.getValue() instanceof StringConstant) {
+						strings.add(((StringConstant) valueBox.getValue()).value);
+					}
+				}
+			}
+		}
+
+		FastHierarchy hierarchy = Scene.v().getOrMakeFastHierarchy();
+		List<SootMethod> candidates = new ArrayList<>();
+		for (SootClass sootClass : applicationClasses) {
+			for (SootMethod sootMethod : sootClass.getMethods()) {
+				if (isCandidate(sootMethod, hierarchy, openPackages, strings)) {
+					candidates.add(sootMethod);
+				} else {
+					reach(sootMethod);
+				}
+			}
+		}
+
+		while (!worklist.isEmpty()) {
+			Body body = bodies.get(worklist.pop());
+			if (body == null) {
+				continue;
+			}
+			for (Unit unit : body.getUnits()) {
+				Stmt stmt = (Stmt) unit;
+				if (stmt.containsInvokeExpr()) {
+					reach(stmt.getInvokeExpr().getMethodRef());
+					if (stmt.getInvokeExpr() instanceof DynamicInvokeExpr) {
+						for (Value value
+						     : ((DynamicInvokeExpr) stmt.getInvokeExpr()).getBootstrapArgs()) {
+							reachHandle(value);
+						}
+					}
+				}
+				for (ValueBox valueBox : unit.getUseBoxes()) {
+					reachHandle(valueBox.getValue());
+				}
+			}
+		}
+
+		int pruned = 0;
+		for (SootMethod sootMethod : candidates) {
+			if (reached.contains(sootMethod)) {
+				continue;
+			}
+			SootClass sootClass = sootMethod.getDeclaringClass();
+			String className = sootClass.getName().replace('.', '/');
+			long bytes = budget.getSize(sootMethod) + METHOD_OVERHEAD;
+			classBytes.merge(className, bytes, Long::sum);
+			List<String> methods = classMethods.get(className);
+			if (methods == null) {
+				methods = new ArrayList<>();
+				classMethods.put(className, methods);
+			}
+			methods.add(MethodIndex.getHotSpotSignature(sootMethod));
+			sootClass.removeMethod(sootMethod);
+			++pruned;
+		}
+		return pruned;
+	}
+
+	private boolean isCandidate(SootMethod sootMethod,
+	                            FastHierarchy hierarchy,
+	                            HashSet<String> openPackages,
+	                            HashSet<String> strings) {
+		SootClass sootClass = sootMethod.getDeclaringClass();
+		if (sootMethod.isPublic() || sootMethod.isProtected()
+		    || !sootMethod.isConcrete() || sootClass.isInterface()
+		    || sootMethod.isConstructor() || sootMethod.isStaticInitializer()
+		    || SERIALIZATION_METHODS.contains(sootMethod.getName())
+		    || strings.contains(sootMethod.getName())
+		    || sootMethod.hasTag("VisibilityAnnotationTag")) {
+			return false;
+		}
+		if (sootMethod.isPrivate()) {
+			return !unreadClasses.contains(sootClass);
+		}
+		if (openPackages.contains(sootClass.getPackageName())) {
+			return false;
+		}
+		if (sootMethod.isStatic()) {
+			return true;
+		}
+		String subSignature = sootMethod.getSubSignature();
+		for (SootClass superClass = sootClass.hasSuperclass()
+		                            ? sootClass.getSuperclass() : null;
+		     superClass != null;
+		     superClass = superClass.hasSuperclass() ? superClass.getSuperclass() : null) {
+			if (superClass.declaresMethod(subSignature)) {
+				return false;
+			}
+		}
+		ArrayDeque<SootClass> subClasses =
+			new ArrayDeque<>(hierarchy.getSubclassesOf(sootClass));
+		while (!subClasses.isEmpty()) {
+			SootClass subClass = subClasses.pop();
+			if (subClass.declaresMethod(subSignature)) {
+				return false;
+			}
+			subClasses.addAll(hierarchy.getSubclassesOf(subClass));
+		}
+		return true;
+	}
+
+	private void reach(SootMethod sootMethod) {
+		if (reached.add(sootMethod)) {
+			worklist.add(sootMethod);
+		}
+	}
+
+	// Whichever class up the hierarchy declares the method is the one the
+	// reference resolves to, all of them are kept
+	private void reach(SootMethodRef methodRef) {
+		for (SootClass sootClass = methodRef.getDeclaringClass();
+		     sootClass != null;
+		     sootClass = sootClass.hasSuperclass() ? sootClass.getSuperclass() : null) {
+			SootMethod sootMethod = sootClass.getMethodUnsafe(methodRef.getSubSignature());
+			if (sootMethod != null) {
+				reach(sootMethod);
+			}
+		}
+	}
+
+	private void reachHandle(Value value) {
+		if (value instanceof MethodHandle && ((MethodHandle) value).isMethodRef()) {
+			reach(((MethodHandle) value).getMethodRef());
+		}
+	}
+}
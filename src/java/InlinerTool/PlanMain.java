@@ -0,0 +1,25 @@
+package InlinerTool;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+// Converts an inline targets file into a binary plan that Main maps instead
+// of reading:
+//   java InlinerTool.PlanMain <inline-targets> <plan>
+public class PlanMain {
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("usage: PlanMain <inline-targets> <plan>");
+			System.exit(1);
+		}
+
+		MethodIndex methodIndex = new MethodIndex();
+		HashMap<Integer, HashMap<Integer, InlineCallsite>> inlineTargets =
+			InlineTargetsReader.read(args[0], methodIndex);
+		InlinePlan.write(args[1], inlineTargets, methodIndex);
+
+		InlinePlan plan = InlinePlan.map(args[1]);
+		System.out.println("Plan: " + plan.getReceiverCount() + " receivers, "
+			+ plan.getStringCount() + " strings written");
+	}
+}
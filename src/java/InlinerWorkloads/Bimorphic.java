@@ -0,0 +1,71 @@
+package InlinerWorkloads;
+
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+// A virtual and an interface call that see two receiver classes in equal
+// shares, which InlinerTool inlines behind two exact-type guards
+public class Bimorphic implements LongSupplier {
+
+	public interface Op {
+		long apply(long value);
+	}
+
+	public static abstract class Shape {
+		public abstract long area();
+	}
+
+	public static final class Square extends Shape {
+		private final long side;
+		Square(long side) { this.side = side; }
+		public long area() { return side * side; }
+	}
+
+	public static final class Rectangle extends Shape {
+		private final long width;
+		private final long height;
+		Rectangle(long width, long height) { this.width = width; this.height = height; }
+		public long area() { return width * height; }
+	}
+
+	public static final class Mix implements Op {
+		private final long factor;
+		Mix(long factor) { this.factor = factor; }
+		public long apply(long value) { return value * factor + 1; }
+	}
+
+	public static final class Shift implements Op {
+		private final int bits;
+		Shift(int bits) { this.bits = bits; }
+		public long apply(long value) { return value ^ (value >>> bits); }
+	}
+
+	private Shape[] shapes = new Shape[Driver.SIZE];
+	private Op[] ops = new Op[Driver.SIZE];
+
+	public Bimorphic() {
+		Random random = new Random(42);
+		for (int i = 0; i < Driver.SIZE; ++i) {
+			if (random.nextBoolean()) {
+				shapes[i] = new Square(random.nextInt(100));
+			} else {
+				shapes[i] = new Rectangle(random.nextInt(100), random.nextInt(100));
+			}
+			if (random.nextBoolean()) {
+				ops[i] = new Mix(random.nextInt(100));
+			} else {
+				ops[i] = new Shift(1 + random.nextInt(31));
+			}
+		}
+	}
+
+	@Override
+	public long getAsLong() {
+		long total = 0;
+		for (int i = 0; i < Driver.SIZE; ++i) {
+			total += shapes[i].area();
+			total = ops[i].apply(total);
+		}
+		return total;
+	}
+}
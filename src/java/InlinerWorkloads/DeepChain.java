@@ -0,0 +1,64 @@
+package InlinerWorkloads;
+
+import java.util.function.LongSupplier;
+
+// A chain of eight small virtual calls, each through a field of the common
+// base type, so every call site has a single profiled receiver but several
+// possible ones. HotSpot inlines the whole chain up to MaxInlineLevel, and
+// InlinerTool follows it through the nested call sites of the inline targets.
+public class DeepChain implements LongSupplier {
+
+	public static abstract class Stage {
+		public abstract long apply(long value);
+	}
+
+	public static final class Stage0 extends Stage {
+		private final Stage next = new Stage1();
+		public long apply(long value) { return next.apply(value + 1); }
+	}
+
+	public static final class Stage1 extends Stage {
+		private final Stage next = new Stage2();
+		public long apply(long value) { return next.apply(value * 3); }
+	}
+
+	public static final class Stage2 extends Stage {
+		private final Stage next = new Stage3();
+		public long apply(long value) { return next.apply(value ^ 0x5bd1e995L); }
+	}
+
+	public static final class Stage3 extends Stage {
+		private final Stage next = new Stage4();
+		public long apply(long value) { return next.apply(value >>> 1); }
+	}
+
+	public static final class Stage4 extends Stage {
+		private final Stage next = new Stage5();
+		public long apply(long value) { return next.apply(value + 7); }
+	}
+
+	public static final class Stage5 extends Stage {
+		private final Stage next = new Stage6();
+		public long apply(long value) { return next.apply(value * 5); }
+	}
+
+	public static final class Stage6 extends Stage {
+		private final Stage next = new Stage7();
+		public long apply(long value) { return next.apply(value ^ (value >>> 7)); }
+	}
+
+	public static final class Stage7 extends Stage {
+		public long apply(long value) { return value - 1; }
+	}
+
+	private Stage head = new Stage0();
+
+	@Override
+	public long getAsLong() {
+		long total = 0;
+		for (int i = 0; i < Driver.SIZE; ++i) {
+			total += head.apply(i);
+		}
+		return total;
+	}
+}
@@ -0,0 +1,31 @@
+package InlinerWorkloads;
+
+import java.util.function.LongSupplier;
+
+// Runs every workload long enough for HotSpot to compile it, so that a
+// LogCompilation log of this run gives the inline targets for the workloads:
+//   java -XX:+UnlockDiagnosticVMOptions -XX:+LogCompilation
+//       -XX:LogFile=<log> -cp <classes> InlinerWorkloads.Driver [iterations]
+public class Driver {
+
+	// Elements each workload goes through per call
+	public static final int SIZE = 1024;
+
+	public static final String[] WORKLOADS = {
+		"Monomorphic", "Bimorphic", "Megamorphic", "DeepChain", "LargeCaller"
+	};
+
+	public static void main(String[] args) throws ReflectiveOperationException {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		for (String name : WORKLOADS) {
+			LongSupplier workload = (LongSupplier)
+				Class.forName("InlinerWorkloads." + name)
+					.getDeclaredConstructor().newInstance();
+			long result = 0;
+			for (int i = 0; i < iterations; ++i) {
+				result += workload.getAsLong();
+			}
+			System.out.println(name + " " + result);
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package InlinerWorkloads;
+
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+// A virtual and an interface call that see four receiver classes with
+// skewed shares. HotSpot does not inline calls with more than two receivers,
+// InlinerTool with polymorphic:true guards the hottest ones and leaves the
+// rest to the fallback call.
+public class Megamorphic implements LongSupplier {
+
+	public interface Op {
+		long apply(long value);
+	}
+
+	public static abstract class Shape {
+		public abstract long area();
+	}
+
+	public static final class Square extends Shape {
+		private final long side;
+		Square(long side) { this.side = side; }
+		public long area() { return side * side; }
+	}
+
+	public static final class Rectangle extends Shape {
+		private final long width;
+		private final long height;
+		Rectangle(long width, long height) { this.width = width; this.height = height; }
+		public long area() { return width * height; }
+	}
+
+	public static final class Triangle extends Shape {
+		private final long base;
+		private final long height;
+		Triangle(long base, long height) { this.base = base; this.height = height; }
+		public long area() { return base * height / 2; }
+	}
+
+	public static final class Circle extends Shape {
+		private final long radius;
+		Circle(long radius) { this.radius = radius; }
+		public long area() { return radius * radius * 355 / 113; }
+	}
+
+	public static final class Mix implements Op {
+		private final long factor;
+		Mix(long factor) { this.factor = factor; }
+		public long apply(long value) { return value * factor + 1; }
+	}
+
+	public static final class Shift implements Op {
+		private final int bits;
+		Shift(int bits) { this.bits = bits; }
+		public long apply(long value) { return value ^ (value >>> bits); }
+	}
+
+	public static final class Add implements Op {
+		private final long addend;
+		Add(long addend) { this.addend = addend; }
+		public long apply(long value) { return value + addend; }
+	}
+
+	public static final class Rotate implements Op {
+		private final int bits;
+		Rotate(int bits) { this.bits = bits; }
+		public long apply(long value) { return Long.rotateLeft(value, bits); }
+	}
+
+	private Shape[] shapes = new Shape[Driver.SIZE];
+	private Op[] ops = new Op[Driver.SIZE];
+
+	// Receiver shares of 50%, 25%, 15% and 10%
+	public Megamorphic() {
+		Random random = new Random(42);
+		for (int i = 0; i < Driver.SIZE; ++i) {
+			int shape = random.nextInt(100);
+			if (shape < 50) {
+				shapes[i] = new Square(random.nextInt(100));
+			} else if (shape < 75) {
+				shapes[i] = new Rectangle(random.nextInt(100), random.nextInt(100));
+			} else if (shape < 90) {
+				shapes[i] = new Triangle(random.nextInt(100), random.nextInt(100));
+			} else {
+				shapes[i] = new Circle(random.nextInt(100));
+			}
+			int op = random.nextInt(100);
+			if (op < 50) {
+				ops[i] = new Mix(random.nextInt(100));
+			} else if (op < 75) {
+				ops[i] = new Shift(1 + random.nextInt(31));
+			} else if (op < 90) {
+				ops[i] = new Add(random.nextInt(100));
+			} else {
+				ops[i] = new Rotate(random.nextInt(64));
+			}
+		}
+	}
+
+	@Override
+	public long getAsLong() {
+		long total = 0;
+		for (int i = 0; i < Driver.SIZE; ++i) {
+			total += shapes[i].area();
+			total = ops[i].apply(total);
+		}
+		return total;
+	}
+}
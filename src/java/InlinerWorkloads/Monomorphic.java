@@ -0,0 +1,51 @@
+package InlinerWorkloads;
+
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+// A virtual and an interface call that only ever see one receiver class.
+// Each hierarchy has a single implementation, so class hierarchy analysis
+// lets InlinerTool inline both without a guard.
+public class Monomorphic implements LongSupplier {
+
+	public interface Op {
+		long apply(long value);
+	}
+
+	public static abstract class Shape {
+		public abstract long area();
+	}
+
+	public static final class Square extends Shape {
+		private final long side;
+		Square(long side) { this.side = side; }
+		public long area() { return side * side; }
+	}
+
+	public static final class Mix implements Op {
+		private final long factor;
+		Mix(long factor) { this.factor = factor; }
+		public long apply(long value) { return value * factor + 1; }
+	}
+
+	private Shape[] shapes = new Shape[Driver.SIZE];
+	private Op[] ops = new Op[Driver.SIZE];
+
+	public Monomorphic() {
+		Random random = new Random(42);
+		for (int i = 0; i < Driver.SIZE; ++i) {
+			shapes[i] = new Square(random.nextInt(100));
+			ops[i] = new Mix(random.nextInt(100));
+		}
+	}
+
+	@Override
+	public long getAsLong() {
+		long total = 0;
+		for (int i = 0; i < Driver.SIZE; ++i) {
+			total += shapes[i].area();
+			total = ops[i].apply(total);
+		}
+		return total;
+	}
+}
@@ -11,6 +11,12 @@ class Command(BaseCommand):
     def handle(self, *args, **options):
         project, _ = Project.objects.get_or_create(name=options['project'])
         with open(options['out_file'], 'w') as f:
+            # Read by InlinerTool.InlineTargetsReader
+            f.write('#inline-targets 2\n')
             for inline_call in InlineCall.objects.filter(project=project):
                 f.write(str(inline_call))
+                f.write(' {} {}'.format(inline_call.callsite_count,
+                                        inline_call.receiver_count))
+                if inline_call.receiver is not None:
+                    f.write(' {}'.format(inline_call.receiver.name))
                 f.write('\n')
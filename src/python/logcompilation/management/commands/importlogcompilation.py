@@ -16,6 +16,7 @@ class Visitor:
         self.model_klass_lookup = {}
         self.model_method_lookup = {}
         self.possible_inline_callsites = collections.defaultdict(list)
+        self.callsite_counts = collections.defaultdict(int)
         self.blacklisted_inline_callsites = set()
 
     def add_log_klass_entry(self, klass_id, name):
@@ -54,20 +55,35 @@ class Visitor:
                                                      bci=bci)
         return callsite
 
-    def create_possible_inline_call(self, callsite, callee):
+    def create_possible_inline_call(self, callsite, callee, callsite_count, receivers):
         assert callsite is not None
         assert callee is not None
-        self.possible_inline_callsites[callsite].append(callee)
+        # Receivers are inlined in the order the call lists them
+        receiver, receiver_count = receivers.pop(0) if receivers else (None, 0)
+        self.possible_inline_callsites[callsite].append((callee, receiver, receiver_count))
+        # A method compiled more than once logs the profile each time, and
+        # the counts only grow, so the last one is the largest
+        self.callsite_counts[callsite] = max(self.callsite_counts[callsite], callsite_count or 0)
 
     def create_inline_calls(self):
         for callsite, callees in self.possible_inline_callsites.items():
             if callsite in self.blacklisted_inline_callsites:
                 continue
 
-            for callee in callees:
+            receiver_counts = {}
+            for callee, receiver, receiver_count in callees:
+                key = (callee, receiver)
+                receiver_counts[key] = max(receiver_counts.get(key, 0), receiver_count)
+
+            for (callee, receiver), receiver_count in receiver_counts.items():
                 inline_call, _ = InlineCall.objects.get_or_create(project=self.project,
                                                                   callsite=callsite,
-                                                                  callee=callee)
+                                                                  callee=callee,
+                                                                  receiver=receiver)
+                # Logs of separate runs add up
+                inline_call.callsite_count += self.callsite_counts[callsite]
+                inline_call.receiver_count += receiver_count
+                inline_call.save()
 
     def add_terminator(self, callsite, tag, reason=''):
         InvokeVirtualTerminator.objects.create(compile_thread=self.current_compile_thread,
@@ -144,6 +160,9 @@ class Visitor:
         current_call = None
         receiver1 = None
         receiver2 = None
+        # Profile of current_callsite, from the first call after its bc
+        current_count = None
+        current_receivers = []
 
         for child in node:
             if child.tag == 'assert_null':
@@ -158,7 +177,7 @@ class Visitor:
                 # - 184: invokestatic
                 # - 185: invokeinterface
                 # - 186: invokedynamic
-                if child.attrib['code'] == '182':
+                if child.attrib['code'] in ('182', '185'):
                     if receiver1 is not None or receiver2 is not None:
                         receiver1 = None
                         receiver2 = None
@@ -167,6 +186,8 @@ class Visitor:
                     assert current_callsite is None
                     current_callsite = self.get_callsite(int(node.attrib['method']),
                                                          int(child.attrib['bci']))
+                    current_count = None
+                    current_receivers = []
                 else:
                     if current_callsite:
                         current_callsite = None
@@ -180,6 +201,15 @@ class Visitor:
                 assert len(child) == 0
                 assert child.text is None
                 current_call = self.log_method_lookup[int(child.attrib['method'])]
+                if current_callsite is not None and current_count is None:
+                    # The count is -1 when the call site has no profile
+                    current_count = max(int(child.attrib.get('count', 0)), 0)
+                    for receiver in ['receiver', 'receiver2']:
+                        if receiver not in child.attrib:
+                            break
+                        klass = self.log_klass_lookup.get(int(child.attrib[receiver]))
+                        current_receivers.append((klass, int(child.attrib[receiver + '_count'])))
+
                 if 'virtual' not in child.attrib:
                     continue
 
@@ -232,7 +262,8 @@ class Visitor:
                     current_call = None
                     continue
 
-                self.create_possible_inline_call(current_callsite, current_call)
+                self.create_possible_inline_call(current_callsite, current_call,
+                                                 current_count, current_receivers)
 
                 current_call = None
                 if receiver1:
@@ -248,7 +279,8 @@ class Visitor:
                 assert child.text is None
                 if current_callsite:
                     self.add_terminator(current_callsite, child.tag, child.attrib['reason'])
-                    self.create_possible_inline_call(current_callsite, current_call)
+                    self.create_possible_inline_call(current_callsite, current_call,
+                                                     current_count, current_receivers)
 
                     if receiver1 is not None:
                         receiver1 = None
@@ -0,0 +1,31 @@
+from django.db import migrations, models
+import django.db.models.deletion
+
+
+class Migration(migrations.Migration):
+
+    dependencies = [
+        ('logcompilation', '0002_auto_20191206_1914'),
+    ]
+
+    operations = [
+        migrations.AddField(
+            model_name='inlinecall',
+            name='receiver',
+            field=models.ForeignKey(blank=True, null=True, on_delete=django.db.models.deletion.CASCADE, to='logcompilation.Klass'),
+        ),
+        migrations.AddField(
+            model_name='inlinecall',
+            name='callsite_count',
+            field=models.BigIntegerField(default=0),
+        ),
+        migrations.AddField(
+            model_name='inlinecall',
+            name='receiver_count',
+            field=models.BigIntegerField(default=0),
+        ),
+        migrations.AlterUniqueTogether(
+            name='inlinecall',
+            unique_together={('project', 'callsite', 'callee', 'receiver')},
+        ),
+    ]
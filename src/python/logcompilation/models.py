@@ -52,12 +52,17 @@ class InlineCall(models.Model):
     project = models.ForeignKey(Project, on_delete=models.CASCADE)
     callsite = models.ForeignKey(Callsite, on_delete=models.CASCADE)
     callee = models.ForeignKey(Method, on_delete=models.CASCADE)
+    # Receiver class the profile saw, when the log records it
+    receiver = models.ForeignKey(Klass, on_delete=models.CASCADE, null=True, blank=True)
+    # Profile counts summed over the imported logs
+    callsite_count = models.BigIntegerField(default=0)
+    receiver_count = models.BigIntegerField(default=0)
 
     def __str__(self):
         return '{} {}'.format(str(self.callsite), str(self.callee))
 
     class Meta:
-        unique_together = ('project', 'callsite', 'callee')
+        unique_together = ('project', 'callsite', 'callee', 'receiver')
 
 class InvokeVirtualTerminator(models.Model):
     compile_thread = models.ForeignKey(CompileThread, on_delete=models.CASCADE)